@@ -0,0 +1,469 @@
+package sqlEngine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import sqlEngine.SqlParser.AggregateFunction;
+import sqlEngine.SqlParser.SelectColumn;
+
+/**
+ * Partial result of one aggregate function.
+ * Each state starts with the values of some rows and states of the same group are merged
+ * in the combiner and the reducer, so the shuffle only moves one state per group and mapper.
+ *
+ * @author Matias Leone
+ */
+public abstract class AggregateState {
+
+	/**
+	 * Create an empty state for an aggregate column of the SELECT
+	 */
+	public static AggregateState create(SelectColumn column) {
+		if(column.function == AggregateFunction.PERCENTILE_APPROX)
+			return new PercentileState(column.function, column.percentile);
+		return create(column.function);
+	}
+
+	/**
+	 * Create an empty state for the specified function.
+	 * States of PERCENTILE_APPROX created without their column compute the median.
+	 */
+	public static AggregateState create(AggregateFunction function) {
+		switch (function) {
+		case COUNT:
+			return new CountState();
+		case SUM:
+			return new SumState();
+		case MAX:
+			return new MaxState();
+		case MIN:
+			return new MinState();
+		case AVG:
+			return new AvgState();
+		case COUNT_DISTINCT:
+			return new CountDistinctState();
+		case APPROX_COUNT_DISTINCT:
+			return new ApproxCountDistinctState();
+		case MEDIAN:
+		case PERCENTILE_APPROX:
+			return new PercentileState(function, 0.5);
+		}
+		throw new RuntimeException("Invalid aggregate function: " + function);
+	}
+
+	public abstract AggregateFunction getFunction();
+
+	/**
+	 * Add the value of the column of one row
+	 * @param type type of the column, used to parse the value
+	 */
+	public abstract void add(Row row, int colIndex, DataType type);
+
+	/**
+	 * Add another state of the same function
+	 */
+	public abstract void merge(AggregateState other);
+
+	/**
+	 * Go back to the empty state
+	 */
+	public abstract void reset();
+
+	/**
+	 * Final value of the function
+	 */
+	public abstract String getResult();
+
+	/**
+	 * Final value of the function as a number, used by HAVING
+	 */
+	public abstract double getNumber();
+
+	public abstract void write(DataOutput out) throws IOException;
+
+	public abstract void readFields(DataInput in) throws IOException;
+
+	/**
+	 * Approximate bytes used in memory, used to bound in-mapper aggregation
+	 */
+	public int getMemorySize() {
+		return 32;
+	}
+
+
+	/**
+	 * COUNT: number of rows
+	 */
+	private static class CountState extends AggregateState {
+		private long count;
+		@Override
+		public AggregateFunction getFunction() {
+			return AggregateFunction.COUNT;
+		}
+		@Override
+		public void add(Row row, int colIndex, DataType type) {
+			count++;
+		}
+		@Override
+		public void merge(AggregateState other) {
+			count += ((CountState)other).count;
+		}
+		@Override
+		public void reset() {
+			count = 0;
+		}
+		@Override
+		public double getNumber() {
+			return count;
+		}
+		@Override
+		public String getResult() {
+			return String.valueOf(count);
+		}
+		@Override
+		public void write(DataOutput out) throws IOException {
+			WritableUtils.writeVLong(out, count);
+		}
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			count = WritableUtils.readVLong(in);
+		}
+	}
+
+	/**
+	 * SUM: sum of the values
+	 */
+	private static class SumState extends AggregateState {
+		private double sum;
+		@Override
+		public AggregateFunction getFunction() {
+			return AggregateFunction.SUM;
+		}
+		@Override
+		public void add(Row row, int colIndex, DataType type) {
+			sum += type.parseDouble(row, colIndex);
+		}
+		@Override
+		public void merge(AggregateState other) {
+			sum += ((SumState)other).sum;
+		}
+		@Override
+		public void reset() {
+			sum = 0;
+		}
+		@Override
+		public double getNumber() {
+			return sum;
+		}
+		@Override
+		public String getResult() {
+			return Utils.printDouble(sum);
+		}
+		@Override
+		public void write(DataOutput out) throws IOException {
+			out.writeDouble(sum);
+		}
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			sum = in.readDouble();
+		}
+	}
+
+	/**
+	 * MAX: greatest value
+	 */
+	private static class MaxState extends AggregateState {
+		private double max = Double.NEGATIVE_INFINITY;
+		@Override
+		public AggregateFunction getFunction() {
+			return AggregateFunction.MAX;
+		}
+		@Override
+		public void add(Row row, int colIndex, DataType type) {
+			max = Math.max(max, type.parseDouble(row, colIndex));
+		}
+		@Override
+		public void merge(AggregateState other) {
+			max = Math.max(max, ((MaxState)other).max);
+		}
+		@Override
+		public void reset() {
+			max = Double.NEGATIVE_INFINITY;
+		}
+		@Override
+		public double getNumber() {
+			return max;
+		}
+		@Override
+		public String getResult() {
+			return Utils.printDouble(max);
+		}
+		@Override
+		public void write(DataOutput out) throws IOException {
+			out.writeDouble(max);
+		}
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			max = in.readDouble();
+		}
+	}
+
+	/**
+	 * MIN: lowest value
+	 */
+	private static class MinState extends AggregateState {
+		private double min = Double.POSITIVE_INFINITY;
+		@Override
+		public AggregateFunction getFunction() {
+			return AggregateFunction.MIN;
+		}
+		@Override
+		public void add(Row row, int colIndex, DataType type) {
+			min = Math.min(min, type.parseDouble(row, colIndex));
+		}
+		@Override
+		public void merge(AggregateState other) {
+			min = Math.min(min, ((MinState)other).min);
+		}
+		@Override
+		public void reset() {
+			min = Double.POSITIVE_INFINITY;
+		}
+		@Override
+		public double getNumber() {
+			return min;
+		}
+		@Override
+		public String getResult() {
+			return Utils.printDouble(min);
+		}
+		@Override
+		public void write(DataOutput out) throws IOException {
+			out.writeDouble(min);
+		}
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			min = in.readDouble();
+		}
+	}
+
+	/**
+	 * AVG: sum and count of the values, divided at the end
+	 */
+	private static class AvgState extends AggregateState {
+		private double sum;
+		private long count;
+		@Override
+		public AggregateFunction getFunction() {
+			return AggregateFunction.AVG;
+		}
+		@Override
+		public void add(Row row, int colIndex, DataType type) {
+			sum += type.parseDouble(row, colIndex);
+			count++;
+		}
+		@Override
+		public void merge(AggregateState other) {
+			sum += ((AvgState)other).sum;
+			count += ((AvgState)other).count;
+		}
+		@Override
+		public void reset() {
+			sum = 0;
+			count = 0;
+		}
+		@Override
+		public double getNumber() {
+			return sum / (double)count;
+		}
+		@Override
+		public String getResult() {
+			return Utils.printDouble(sum / (double)count);
+		}
+		@Override
+		public void write(DataOutput out) throws IOException {
+			out.writeDouble(sum);
+			WritableUtils.writeVLong(out, count);
+		}
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			sum = in.readDouble();
+			count = WritableUtils.readVLong(in);
+		}
+	}
+
+	/**
+	 * COUNT(DISTINCT col): exact number of different values, with all the values kept in a set.
+	 * Empty values are not counted
+	 */
+	private static class CountDistinctState extends AggregateState {
+		private final Set<String> values = new HashSet<String>();
+		private int memorySize = 32;
+		@Override
+		public AggregateFunction getFunction() {
+			return AggregateFunction.COUNT_DISTINCT;
+		}
+		@Override
+		public void add(Row row, int colIndex, DataType type) {
+			addValue(row.getValue(colIndex));
+		}
+		private void addValue(String value) {
+			if(value.length() > 0 && values.add(value)) {
+				memorySize += 64 + value.length() * 2;
+			}
+		}
+		@Override
+		public void merge(AggregateState other) {
+			for (String value : ((CountDistinctState)other).values) {
+				addValue(value);
+			}
+		}
+		@Override
+		public void reset() {
+			values.clear();
+			memorySize = 32;
+		}
+		@Override
+		public double getNumber() {
+			return values.size();
+		}
+		@Override
+		public String getResult() {
+			return String.valueOf(values.size());
+		}
+		@Override
+		public int getMemorySize() {
+			return memorySize;
+		}
+		@Override
+		public void write(DataOutput out) throws IOException {
+			WritableUtils.writeVInt(out, values.size());
+			for (String value : values) {
+				Text.writeString(out, value);
+			}
+		}
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			reset();
+			int size = WritableUtils.readVInt(in);
+			for (int i = 0; i < size; i++) {
+				addValue(Text.readString(in));
+			}
+		}
+	}
+
+	/**
+	 * APPROX_COUNT_DISTINCT(col): number of different values estimated with a HyperLogLog sketch.
+	 * Empty values are not counted
+	 */
+	private static class ApproxCountDistinctState extends AggregateState {
+		private final static Charset UTF8 = Charset.forName("UTF-8");
+		private final HyperLogLog sketch = new HyperLogLog();
+		@Override
+		public AggregateFunction getFunction() {
+			return AggregateFunction.APPROX_COUNT_DISTINCT;
+		}
+		@Override
+		public void add(Row row, int colIndex, DataType type) {
+			if(row instanceof RowView) {
+				RowView view = (RowView)row;
+				int start = view.getStart(colIndex);
+				int length = view.getEnd(colIndex) - start;
+				if(length > 0) {
+					sketch.add(view.getBytes(), start, length);
+				}
+				return;
+			}
+			String value = row.getValue(colIndex);
+			if(value.length() > 0) {
+				byte[] bytes = value.getBytes(UTF8);
+				sketch.add(bytes, 0, bytes.length);
+			}
+		}
+		@Override
+		public void merge(AggregateState other) {
+			sketch.merge(((ApproxCountDistinctState)other).sketch);
+		}
+		@Override
+		public void reset() {
+			sketch.clear();
+		}
+		@Override
+		public double getNumber() {
+			return sketch.estimate();
+		}
+		@Override
+		public String getResult() {
+			return String.valueOf(sketch.estimate());
+		}
+		@Override
+		public int getMemorySize() {
+			return sketch.getMemorySize();
+		}
+		@Override
+		public void write(DataOutput out) throws IOException {
+			sketch.write(out);
+		}
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			sketch.readFields(in);
+		}
+	}
+
+	/**
+	 * PERCENTILE_APPROX(col, p) and MEDIAN(col): value at a percentile estimated with a t-digest,
+	 * which has bounded memory whatever the size of the group is
+	 */
+	private static class PercentileState extends AggregateState {
+		private final AggregateFunction function;
+		private final double percentile;
+		private final TDigest digest = new TDigest();
+		public PercentileState(AggregateFunction function, double percentile) {
+			this.function = function;
+			this.percentile = percentile;
+		}
+		@Override
+		public AggregateFunction getFunction() {
+			return function;
+		}
+		@Override
+		public void add(Row row, int colIndex, DataType type) {
+			digest.add(type.parseDouble(row, colIndex));
+		}
+		@Override
+		public void merge(AggregateState other) {
+			digest.merge(((PercentileState)other).digest);
+		}
+		@Override
+		public void reset() {
+			digest.clear();
+		}
+		@Override
+		public double getNumber() {
+			return digest.quantile(percentile);
+		}
+		@Override
+		public String getResult() {
+			return Utils.printDouble(digest.quantile(percentile));
+		}
+		@Override
+		public int getMemorySize() {
+			return digest.getMemorySize();
+		}
+		@Override
+		public void write(DataOutput out) throws IOException {
+			digest.write(out);
+		}
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			digest.readFields(in);
+		}
+	}
+}
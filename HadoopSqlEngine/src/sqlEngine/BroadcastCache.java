@@ -0,0 +1,158 @@
+package sqlEngine;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+
+/**
+ * Persistent HDFS cache of the files shipped to the mappers for broadcast joins.
+ * Entries are stored in one dir per table version, named after the table and a signature
+ * of its files (path, length and modification time). They are reused by later queries 
+ * until the table changes. Inside an entry each variant of the artifacts has its own dir.
+ * Entries of old versions, variants and temp files of interrupted builds are deleted once they were not used
+ * for STALE_ENTRY_AGE, so jobs started before can still read them.
+ * 
+ * @author Matias Leone
+ */
+public class BroadcastCache {
+
+	private final static String TEMP_EXTENSION = ".inprogress";
+	
+	/**
+	 * Milliseconds since its last use after which an entry, a variant or a temp file is deleted
+	 */
+	private final static long STALE_ENTRY_AGE = 24 * 60 * 60 * 1000L;
+	
+	/**
+	 * Names of the variant dirs: MD5 of the variant in hex
+	 */
+	private final static Pattern VARIANT_NAME = Pattern.compile("[0-9a-f]{32}");
+	
+	private final FileSystem hdfs;
+	private final Path cacheDir;
+	private final Map<Path, Path> entryDirs;
+	private final Set<Path> usedVariantDirs;
+	
+	public BroadcastCache(FileSystem hdfs, Path cacheDir) {
+		this.hdfs = hdfs;
+		this.cacheDir = cacheDir;
+		this.entryDirs = new HashMap<Path, Path>();
+		this.usedVariantDirs = new HashSet<Path>();
+	}
+	
+	/**
+	 * Path of a file derived from the table. The file may not exist yet.
+	 * The file name is the table name plus the extension, so mappers can tell which table it belongs to.
+	 * @param variant description of how the file is built from the table, files with different variants are stored apart
+	 */
+	public Path getArtifactPath(String table, Path tableDir, String variant, String extension) throws IOException {
+		Path dir = getEntryDir(table, tableDir);
+		if(variant.length() > 0) {
+			dir = new Path(dir, MD5Hash.digest(variant).toString());
+			
+			//Its modification time records the last use
+			if(usedVariantDirs.add(dir) && hdfs.exists(dir)) {
+				hdfs.setTimes(dir, System.currentTimeMillis(), -1);
+			}
+		}
+		return new Path(dir, table + extension);
+	}
+	
+	/**
+	 * Temp path where an artifact must be written before calling publish()
+	 */
+	public Path getTempPath(Path artifactPath) {
+		return new Path(artifactPath.getParent(), artifactPath.getName() + "." + System.nanoTime() + TEMP_EXTENSION);
+	}
+	
+	/**
+	 * Move a completely written artifact to its final path.
+	 * If another query published it first the temp file is discarded.
+	 */
+	public void publish(Path tmpPath, Path artifactPath) throws IOException {
+		if(!hdfs.rename(tmpPath, artifactPath)) {
+			if(!hdfs.exists(artifactPath)) {
+				throw new IOException("Could not publish cache file: " + artifactPath);
+			}
+			hdfs.delete(tmpPath, false);
+		}
+	}
+	
+	/**
+	 * Dir with all the artifacts of the current version of the table. Stale old versions are deleted.
+	 */
+	private Path getEntryDir(String table, Path tableDir) throws IOException {
+		Path entryDir = entryDirs.get(tableDir);
+		if(entryDir != null)
+			return entryDir;
+		
+		//Signature of the table files
+		FileStatus[] files = hdfs.listStatus(tableDir, Utils.VISIBLE_FILES);
+		Arrays.sort(files);
+		StringBuilder sb = new StringBuilder();
+		sb.append(hdfs.makeQualified(tableDir));
+		for (FileStatus f : files) {
+			sb.append("|").append(f.getPath().getName());
+			sb.append("|").append(f.getLen());
+			sb.append("|").append(f.getModificationTime());
+		}
+		entryDir = new Path(cacheDir, table + "-" + MD5Hash.digest(sb.toString()));
+		
+		//New version of the table: delete the previous ones that are not recent. Only dirs named
+		//by this class for this table are removed, not the ones of tables whose name starts the same way
+		if(!hdfs.exists(entryDir)) {
+			if(hdfs.exists(cacheDir)) {
+				Pattern entryName = Pattern.compile(Pattern.quote(table) + "-[0-9a-f]{32}");
+				long staleTime = System.currentTimeMillis() - STALE_ENTRY_AGE;
+				for (FileStatus f : hdfs.listStatus(cacheDir)) {
+					if(f.isDirectory() && f.getModificationTime() < staleTime && entryName.matcher(f.getPath().getName()).matches()) {
+						Utils.deleteDirRecursive(hdfs, f.getPath());
+					}
+				}
+			}
+			hdfs.mkdirs(entryDir);
+			
+		//Same version: its modification time records the last use
+		} else {
+			hdfs.setTimes(entryDir, System.currentTimeMillis(), -1);
+			deleteStaleFiles(entryDir);
+		}
+		
+		entryDirs.put(tableDir, entryDir);
+		return entryDir;
+	}
+	
+	/**
+	 * Delete the variants of an entry that were not used recently, and temp files left by interrupted builds
+	 */
+	private void deleteStaleFiles(Path entryDir) throws IOException {
+		long staleTime = System.currentTimeMillis() - STALE_ENTRY_AGE;
+		for (FileStatus f : hdfs.listStatus(entryDir)) {
+			if(f.isDirectory()) {
+				if(f.getModificationTime() < staleTime && VARIANT_NAME.matcher(f.getPath().getName()).matches()) {
+					Utils.deleteDirRecursive(hdfs, f.getPath());
+				} else {
+					deleteStaleTempFiles(f.getPath(), staleTime);
+				}
+			}
+		}
+		deleteStaleTempFiles(entryDir, staleTime);
+	}
+	
+	private void deleteStaleTempFiles(Path dir, long staleTime) throws IOException {
+		for (FileStatus f : hdfs.listStatus(dir)) {
+			if(f.isFile() && f.getModificationTime() < staleTime && f.getPath().getName().endsWith(TEMP_EXTENSION)) {
+				hdfs.delete(f.getPath(), false);
+			}
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package sqlEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import sqlEngine.CachedTableBuilder.ColumnType;
+
+/**
+ * Join table written by CachedTableBuilder in a compact columnar layout.
+ * The file is memory-mapped and read in place: numeric columns are stored as primitives, 
+ * the rest of the columns are dictionary-encoded and a hash index over the join key gives 
+ * constant time lookups.
+ * Rows that share a join key are chained, so a lookup returns all of them in file order.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * int magic, int version, int rowsCount, int columnsCount, int slotsCount, int keysLength
+ * for each column: byte type, int dictionarySize, int dictionaryBytes
+ * int[slotsCount] index slots with the first row of each key (-1 for empty slots)
+ * int[rowsCount] next row with the same key as each row (-1 for the last one)
+ * int[rowsCount + 1] offsets of the key of each row, byte[keysLength] join keys
+ * for each column: its values (see CachedTableBuilder)
+ * </pre>
+ * 
+ * @author Matias Leone
+ */
+public class CachedTable {
+	
+	public final static String FILE_EXTENSION = ".tbl";
+	public final static int MAGIC = 0x53514C54;
+	public final static int VERSION = 2;
+	private final static ColumnType[] COLUMN_TYPES = ColumnType.values();
+	
+	public String table;
+	private final ByteBuffer buffer;
+	private final int rowsCount;
+	private final int slotsCount;
+	private final int slotsOffset;
+	private final int nextRowsOffset;
+	private final int keyOffsetsOffset;
+	private final int keysOffset;
+	private final ColumnType[] columnTypes;
+	private final int[] columnOffsets;
+	private final int[] dictionaryOffsets;
+	private final String[][] dictionaries;
+	private final CachedRow cursor = new CachedRow();
+	
+	/**
+	 * Open a table file from the distributed cache.
+	 * The file is mapped from the local copy created by the framework, or read from HDFS if there is no local copy.
+	 */
+	public static CachedTable open(FileSystem hdfs, Path path) {
+		try {
+			ByteBuffer buffer;
+			File localFile = new File(path.getName());
+			if(localFile.isFile()) {
+				RandomAccessFile file = new RandomAccessFile(localFile, "r");
+				try {
+					buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+				} finally {
+					file.close();
+				}
+			} else {
+				byte[] bytes = new byte[(int)hdfs.getFileStatus(path).getLen()];
+				FSDataInputStream in = hdfs.open(path);
+				try {
+					in.readFully(bytes);
+				} finally {
+					in.close();
+				}
+				buffer = ByteBuffer.wrap(bytes);
+			}
+			return new CachedTable(getTableName(path), buffer);
+		} catch (IOException e) {
+			throw new RuntimeException("Error loading table: " + path, e);
+		}
+	}
+	
+	public CachedTable(String table, ByteBuffer buffer) {
+		this.table = table;
+		this.buffer = buffer;
+		
+		//Header
+		if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new RuntimeException("Invalid table file for: " + table);
+		}
+		rowsCount = buffer.getInt(8);
+		int columnsCount = buffer.getInt(12);
+		slotsCount = buffer.getInt(16);
+		int keysLength = buffer.getInt(20);
+		int position = 24;
+		columnTypes = new ColumnType[columnsCount];
+		int[] dictionarySizes = new int[columnsCount];
+		int[] dictionaryBytes = new int[columnsCount];
+		for (int i = 0; i < columnsCount; i++) {
+			columnTypes[i] = COLUMN_TYPES[buffer.get(position)];
+			dictionarySizes[i] = buffer.getInt(position + 1);
+			dictionaryBytes[i] = buffer.getInt(position + 5);
+			position += 9;
+		}
+		
+		//Sections
+		slotsOffset = position;
+		nextRowsOffset = slotsOffset + slotsCount * 4;
+		keyOffsetsOffset = nextRowsOffset + rowsCount * 4;
+		keysOffset = keyOffsetsOffset + (rowsCount + 1) * 4;
+		position = keysOffset + keysLength;
+		columnOffsets = new int[columnsCount];
+		dictionaryOffsets = new int[columnsCount];
+		dictionaries = new String[columnsCount][];
+		for (int i = 0; i < columnsCount; i++) {
+			columnOffsets[i] = position;
+			switch (columnTypes[i]) {
+			case LONG:
+			case DOUBLE:
+				position += rowsCount * 8;
+				break;
+			case STRING:
+				dictionaryOffsets[i] = position + rowsCount * 4;
+				dictionaries[i] = new String[dictionarySizes[i]];
+				position = dictionaryOffsets[i] + (dictionarySizes[i] + 1) * 4 + dictionaryBytes[i];
+				break;
+			case EMPTY:
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Name of the table stored in the specified file
+	 */
+	public static String getTableName(Path path) {
+		String name = path.getName();
+		return name.substring(0, name.lastIndexOf('.'));
+	}
+	
+	/**
+	 * Search the first row with the key using the hash index. The next ones are found with nextRow()
+	 * @param key join key, with the same bytes created by Utils.getJoinKey() in UTF-8
+	 * @return the position of the row found or -1
+	 */
+	public int searchByKey(byte[] key, int offset, int length) {
+		int mask = slotsCount - 1;
+		int slot = Utils.hashBytes(key, offset, length, 0) & mask;
+		int row;
+		while((row = buffer.getInt(slotsOffset + slot * 4)) != -1) {
+			if(keyEquals(row, key, offset, length)) {
+				return row;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Next row with the same key as the specified row, or -1 if it is the last one
+	 */
+	public int nextRow(int row) {
+		return buffer.getInt(nextRowsOffset + row * 4);
+	}
+	
+	/**
+	 * Row at the specified position. The returned object is reused in the next call
+	 */
+	public Row getRow(int row) {
+		cursor.row = row;
+		return cursor;
+	}
+	
+	/**
+	 * Get value of the specified row and column
+	 */
+	public String getValue(int row, int colIndex) {
+		if(colIndex < 0 || colIndex >= columnTypes.length)
+			throw new RuntimeException("Invalid column index: " + colIndex);
+		switch (columnTypes[colIndex]) {
+		case LONG:
+			return String.valueOf(buffer.getLong(columnOffsets[colIndex] + row * 8));
+		case DOUBLE:
+			return String.valueOf(buffer.getDouble(columnOffsets[colIndex] + row * 8));
+		case EMPTY:
+			return "";
+		default:
+			return getDictionaryValue(colIndex, buffer.getInt(columnOffsets[colIndex] + row * 4));
+		}
+	}
+	
+	public int getRowsCount() {
+		return rowsCount;
+	}
+	
+	private boolean keyEquals(int row, byte[] key, int offset, int length) {
+		int start = buffer.getInt(keyOffsetsOffset + row * 4);
+		int end = buffer.getInt(keyOffsetsOffset + (row + 1) * 4);
+		if(end - start != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if(buffer.get(keysOffset + start + i) != key[offset + i])
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Decode dictionary entry the first time it is used
+	 */
+	private String getDictionaryValue(int colIndex, int code) {
+		String value = dictionaries[colIndex][code];
+		if(value == null) {
+			int entriesCount = dictionaries[colIndex].length;
+			int start = buffer.getInt(dictionaryOffsets[colIndex] + code * 4);
+			int end = buffer.getInt(dictionaryOffsets[colIndex] + (code + 1) * 4);
+			byte[] bytes = new byte[end - start];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(dictionaryOffsets[colIndex] + (entriesCount + 1) * 4 + start + i);
+			}
+			try {
+				value = new String(bytes, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+			dictionaries[colIndex][code] = value;
+		}
+		return value;
+	}
+	
+	
+	/**
+	 * Row of the table pointed by its position
+	 */
+	private class CachedRow implements Row {
+		private int row;
+		@Override
+		public String getValue(int colIndex) {
+			return CachedTable.this.getValue(row, colIndex);
+		}
+	}
+	
+}
@@ -0,0 +1,397 @@
+package sqlEngine;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import sqlEngine.SqlParser.WhereClause;
+
+/**
+ * Reads a join table and writes it in the binary format read by CachedTable.
+ * It runs once in the driver, so mappers do not need to parse the table.
+ * 
+ * @author Matias Leone
+ */
+public class CachedTableBuilder {
+
+	private final String table;
+	private final String columnSeparator;
+	private final int[] keyColumns;
+	private final int[] referencedColumns;
+	private final List<WhereClause> filters;
+	private final SchemaCatalog catalog;
+	private int rowsCount;
+	private List<Column> columns;
+	private byte[] keys;
+	private int keysLength;
+	private int[] keyOffsets;
+	
+	/**
+	 * @param keyColumns columns used in the join, they form the key of the hash index
+	 * @param referencedColumns sorted columns used by the query, the values of the rest of the columns are not stored
+	 * @param filters WHERE terms that only use this table, rows that do not satisfy them are skipped
+	 * @param catalog column types used by the filters
+	 */
+	public CachedTableBuilder(String table, String columnSeparator, int[] keyColumns, int[] referencedColumns, List<WhereClause> filters, SchemaCatalog catalog) {
+		this.table = table;
+		this.columnSeparator = columnSeparator;
+		this.keyColumns = keyColumns;
+		this.referencedColumns = referencedColumns;
+		this.filters = filters;
+		this.catalog = catalog;
+	}
+	
+	/**
+	 * Load in memory all the files of the table
+	 */
+	public void load(FileSystem hdfs, Path tableDir) throws IOException {
+		rowsCount = 0;
+		
+		//Only the referenced columns are parsed and stored, other columns keep their position but have no values
+		int columnsLimit = referencedColumns.length == 0 ? 0 : referencedColumns[referencedColumns.length - 1] + 1;
+		columns = new ArrayList<Column>();
+		for (int i = 0; i < columnsLimit; i++) {
+			columns.add(new Column(Arrays.binarySearch(referencedColumns, i) >= 0));
+		}
+		keys = new byte[1024];
+		keysLength = 0;
+		keyOffsets = new int[1024];
+		
+		WherePredicate filter = WherePredicate.compile(filters, Collections.singletonList(table), catalog);
+		Row[] filterRows = new Row[1];
+		String[] keyValues = new String[keyColumns.length];
+		for (FileStatus file : hdfs.listStatus(tableDir, Utils.VISIBLE_FILES)) {
+			
+			//Rows are read as UTF-8, like the Text rows read by the mappers
+			BufferedReader reader = new BufferedReader(new InputStreamReader(hdfs.open(file.getPath()), "UTF-8"));
+			try {
+				String line;
+	    		while((line = reader.readLine()) != null) {
+	    			if(line.trim().length() == 0)
+	    				continue;
+	    			
+	    			//Apply filters
+	    			Record record = new Record(line, columnSeparator, columnsLimit);
+	    			filterRows[0] = record;
+	    			if(!filter.evaluate(filterRows))
+	    				continue;
+	    			
+	    			//Rows with less columns: missing values are empty
+	    			String[] values = record.getColumns();
+	    			for (int i = 0; i < columns.size(); i++) {
+						columns.get(i).add(i < values.length ? values[i] : "");
+					}
+	    			
+	    			//Join key
+	    			for (int i = 0; i < keyColumns.length; i++) {
+	    				keyValues[i] = record.getValue(keyColumns[i]);
+					}
+	    			addKey(Utils.getJoinKey(keyValues).getBytes("UTF-8"));
+	    			rowsCount++;
+	    		}
+			} finally {
+				reader.close();
+			}
+		}
+		
+		for (Column c : columns) {
+			c.trim();
+		}
+	}
+	
+	/**
+	 * Create a Bloom filter with the join keys of all the loaded rows
+	 */
+	public JoinBloomFilter buildJoinFilter(double falsePositiveRate) {
+		JoinBloomFilter filter = new JoinBloomFilter(rowsCount, falsePositiveRate);
+		for (int row = 0; row < rowsCount; row++) {
+			filter.add(keys, keyOffsets[row], keyOffsets[row + 1] - keyOffsets[row]);
+		}
+		return filter;
+	}
+	
+	/**
+	 * Write the loaded table with the layout described in CachedTable
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		//Hash index with open addressing. Rows that share a key are chained after the first one, in load order
+		int slotsCount = 2;
+		while(slotsCount < rowsCount * 2) {
+			slotsCount <<= 1;
+		}
+		int[] slots = new int[slotsCount];
+		int[] lastRows = new int[slotsCount];
+		int[] nextRows = new int[rowsCount];
+		Arrays.fill(slots, -1);
+		Arrays.fill(nextRows, -1);
+		for (int row = 0; row < rowsCount; row++) {
+			int start = keyOffsets[row];
+			int length = keyOffsets[row + 1] - start;
+			int slot = Utils.hashBytes(keys, start, length, 0) & (slotsCount - 1);
+			while(slots[slot] != -1 && !keyEquals(slots[slot], start, length)) {
+				slot = (slot + 1) & (slotsCount - 1);
+			}
+			if(slots[slot] == -1) {
+				slots[slot] = row;
+			} else {
+				nextRows[lastRows[slot]] = row;
+			}
+			lastRows[slot] = row;
+		}
+		
+		//Header
+		out.writeInt(CachedTable.MAGIC);
+		out.writeInt(CachedTable.VERSION);
+		out.writeInt(rowsCount);
+		out.writeInt(columns.size());
+		out.writeInt(slotsCount);
+		out.writeInt(keysLength);
+		for (Column c : columns) {
+			out.writeByte(c.type.ordinal());
+			out.writeInt(c.type == ColumnType.STRING ? c.dictionary.length : 0);
+			out.writeInt(c.type == ColumnType.STRING ? c.dictionaryBytesLength : 0);
+		}
+		
+		//Index and keys
+		for (int slot : slots) {
+			out.writeInt(slot);
+		}
+		for (int next : nextRows) {
+			out.writeInt(next);
+		}
+		for (int row = 0; row <= rowsCount; row++) {
+			out.writeInt(keyOffsets[row]);
+		}
+		out.write(keys, 0, keysLength);
+		
+		//Columns
+		for (Column c : columns) {
+			c.write(out);
+		}
+	}
+	
+	private void addKey(byte[] key) {
+		if(rowsCount + 2 > keyOffsets.length) {
+			keyOffsets = Arrays.copyOf(keyOffsets, keyOffsets.length * 2);
+		}
+		if(keysLength + key.length > keys.length) {
+			keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keysLength + key.length));
+		}
+		System.arraycopy(key, 0, keys, keysLength, key.length);
+		keyOffsets[rowsCount] = keysLength;
+		keysLength += key.length;
+		keyOffsets[rowsCount + 1] = keysLength;
+	}
+	
+	private boolean keyEquals(int row, int start, int length) {
+		int rowStart = keyOffsets[row];
+		if(keyOffsets[row + 1] - rowStart != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if(keys[rowStart + i] != keys[start + i])
+				return false;
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Types of columns, the ordinal is stored in the file
+	 */
+	public enum ColumnType {
+		LONG,
+		DOUBLE,
+		STRING,
+		EMPTY
+	}
+	
+	/**
+	 * Values of one column. The type is decided by the first value and changes to STRING
+	 * if a value cannot be stored as a number without changing its text.
+	 * Columns not used by the query are EMPTY and do not store their values.
+	 */
+	private static class Column {
+		private ColumnType type;
+		private int size;
+		private long[] longs;
+		private double[] doubles;
+		private int[] codes;
+		private String[] dictionary;
+		private Map<String, Integer> dictionaryCodes;
+		private byte[][] dictionaryBytes;
+		private int dictionaryBytesLength;
+		
+		public Column(boolean referenced) {
+			type = referenced ? null : ColumnType.EMPTY;
+		}
+		
+		public void add(String value) {
+			if(type == ColumnType.EMPTY) {
+				size++;
+				return;
+			}
+			if(type == null) {
+				if(isLong(value)) {
+					type = ColumnType.LONG;
+					longs = new long[16];
+				} else if(isDouble(value)) {
+					type = ColumnType.DOUBLE;
+					doubles = new double[16];
+				} else {
+					toStringColumn();
+				}
+			}
+			
+			if(type == ColumnType.LONG && !isLong(value)) {
+				toStringColumn();
+			} else if(type == ColumnType.DOUBLE && !isDouble(value)) {
+				toStringColumn();
+			}
+			
+			switch (type) {
+			case LONG:
+				if(size == longs.length) longs = Arrays.copyOf(longs, size * 2);
+				longs[size] = Long.parseLong(value);
+				break;
+			case DOUBLE:
+				if(size == doubles.length) doubles = Arrays.copyOf(doubles, size * 2);
+				doubles[size] = Double.parseDouble(value);
+				break;
+			case STRING:
+				if(size == codes.length) codes = Arrays.copyOf(codes, size * 2);
+				codes[size] = encode(value);
+				break;
+			}
+			size++;
+		}
+		
+		/**
+		 * Release unused space once all values were added
+		 */
+		public void trim() throws IOException {
+			//Table without rows
+			if(type == null) {
+				toStringColumn();
+			}
+			
+			switch (type) {
+			case LONG:
+				longs = Arrays.copyOf(longs, size);
+				break;
+			case DOUBLE:
+				doubles = Arrays.copyOf(doubles, size);
+				break;
+			case STRING:
+				codes = Arrays.copyOf(codes, size);
+				dictionary = Arrays.copyOf(dictionary, dictionaryCodes.size());
+				dictionaryCodes = null;
+				dictionaryBytes = new byte[dictionary.length][];
+				dictionaryBytesLength = 0;
+				for (int i = 0; i < dictionary.length; i++) {
+					dictionaryBytes[i] = dictionary[i].getBytes("UTF-8");
+					dictionaryBytesLength += dictionaryBytes[i].length;
+				}
+				break;
+			case EMPTY:
+				break;
+			}
+		}
+		
+		/**
+		 * LONG: one long per row. DOUBLE: one double per row.
+		 * STRING: one code per row, offsets of each dictionary entry plus the end offset, and the UTF-8 bytes of the dictionary.
+		 * EMPTY: nothing
+		 */
+		public void write(DataOutputStream out) throws IOException {
+			switch (type) {
+			case LONG:
+				for (long v : longs) {
+					out.writeLong(v);
+				}
+				break;
+			case DOUBLE:
+				for (double v : doubles) {
+					out.writeDouble(v);
+				}
+				break;
+			case STRING:
+				for (int code : codes) {
+					out.writeInt(code);
+				}
+				int offset = 0;
+				for (byte[] b : dictionaryBytes) {
+					out.writeInt(offset);
+					offset += b.length;
+				}
+				out.writeInt(offset);
+				for (byte[] b : dictionaryBytes) {
+					out.write(b);
+				}
+				break;
+			case EMPTY:
+				break;
+			}
+		}
+		
+		private int encode(String value) {
+			Integer code = dictionaryCodes.get(value);
+			if(code == null) {
+				code = dictionaryCodes.size();
+				dictionaryCodes.put(value, code);
+				if(code == dictionary.length) dictionary = Arrays.copyOf(dictionary, code * 2);
+				dictionary[code] = value;
+			}
+			return code;
+		}
+		
+		/**
+		 * Move all the values added so far to the dictionary
+		 */
+		private void toStringColumn() {
+			ColumnType oldType = type;
+			type = ColumnType.STRING;
+			codes = new int[Math.max(16, size * 2)];
+			dictionary = new String[16];
+			dictionaryCodes = new HashMap<String, Integer>();
+			for (int i = 0; i < size; i++) {
+				codes[i] = encode(oldType == ColumnType.LONG ? String.valueOf(longs[i]) : String.valueOf(doubles[i]));
+			}
+			longs = null;
+			doubles = null;
+		}
+		
+		/**
+		 * Check if the value is a long that is printed back exactly the same way
+		 */
+		private static boolean isLong(String value) {
+			try {
+				return String.valueOf(Long.parseLong(value)).equals(value);
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		
+		/**
+		 * Check if the value is a double that is printed back exactly the same way
+		 */
+		private static boolean isDouble(String value) {
+			try {
+				return String.valueOf(Double.parseDouble(value)).equals(value);
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,168 @@
+package sqlEngine;
+
+import java.math.BigDecimal;
+
+/**
+ * Types of the columns declared in a table schema.
+ * Typed values are parsed to primitives that keep their order, so they are compared as numbers.
+ * Columns without schema are STRING and keep the text comparisons.
+ *
+ * @author Matias Leone
+ */
+public enum DataType {
+	INT,
+	LONG,
+	DOUBLE,
+	DECIMAL,
+	STRING,
+	/**
+	 * Date with format yyyy-MM-dd, stored as the number yyyyMMdd
+	 */
+	DATE;
+
+	/**
+	 * Type from its name in a schema file
+	 */
+	public static DataType parse(String name) {
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new RuntimeException("Invalid column type: " + name);
+		}
+	}
+
+	/**
+	 * INT, LONG and DATE values are compared as long
+	 */
+	public boolean isIntegral() {
+		return this == INT || this == LONG || this == DATE;
+	}
+
+	/**
+	 * Parse a value of an INT, LONG or DATE column
+	 * @throws NumberFormatException if the value does not have the type of the column
+	 */
+	public long parseLong(String value) {
+		switch (this) {
+		case INT:
+			return Integer.parseInt(value);
+		case DATE:
+			return parseDate(value);
+		default:
+			return Long.parseLong(value);
+		}
+	}
+
+	/**
+	 * Parse a value of an INT, LONG or DATE column. Integers are parsed from the bytes of the row
+	 * @throws NumberFormatException if the value does not have the type of the column
+	 */
+	public long parseLong(Row row, int colIndex) {
+		if(this != DATE && row instanceof RowView) {
+			long value = ((RowView)row).getLong(colIndex);
+			if(this == INT && (int)value != value)
+				throw new NumberFormatException("Value out of range: " + value);
+			return value;
+		}
+		return parseLong(row.getValue(colIndex));
+	}
+
+	/**
+	 * Parse a value as a number, used in aggregates
+	 * @throws NumberFormatException if the value is not a number
+	 */
+	public double parseDouble(Row row, int colIndex) {
+		if(isIntegral())
+			return parseLong(row, colIndex);
+		if(row instanceof RowView)
+			return ((RowView)row).getDouble(colIndex);
+		return Double.parseDouble(row.getValue(colIndex));
+	}
+
+	/**
+	 * Parse a value to an object that can be compared with values of the same type:
+	 * Long for INT, LONG and DATE, Double for DOUBLE, BigDecimal for DECIMAL and the String for STRING
+	 * @return parsed value or null if the value does not have the type of the column
+	 */
+	@SuppressWarnings("rawtypes")
+	public Comparable parseKey(Row row, int colIndex) {
+		try {
+			switch (this) {
+			case STRING:
+				return row.getValue(colIndex);
+			case DOUBLE:
+				return parseDouble(row, colIndex);
+			case DECIMAL:
+				return new BigDecimal(row.getValue(colIndex));
+			default:
+				return parseLong(row, colIndex);
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Parse a constant to an object comparable with the values of parseKey()
+	 * @return parsed value or null if the value does not have the type
+	 */
+	@SuppressWarnings("rawtypes")
+	public Comparable parseKey(String value) {
+		try {
+			switch (this) {
+			case STRING:
+				return value;
+			case DOUBLE:
+				return Double.parseDouble(value);
+			case DECIMAL:
+				return new BigDecimal(value);
+			default:
+				return parseLong(value);
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Compare two values created by parseKey(). Values that could not be parsed go first
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static int compareKeys(Comparable a, Comparable b) {
+		if(a == null)
+			return b == null ? 0 : -1;
+		if(b == null)
+			return 1;
+		return a.compareTo(b);
+	}
+
+	/**
+	 * Parse a date with format yyyy-MM-dd to the number yyyyMMdd
+	 */
+	public static long parseDate(String value) {
+		if(value.length() != 10 || value.charAt(4) != '-' || value.charAt(7) != '-')
+			throw new NumberFormatException("Invalid date: " + value);
+		int year = parseDigits(value, 0, 4);
+		int month = parseDigits(value, 5, 7);
+		int day = parseDigits(value, 8, 10);
+		if(month < 1 || month > 12 || day < 1 || day > 31)
+			throw new NumberFormatException("Invalid date: " + value);
+		return year * 10000L + month * 100 + day;
+	}
+
+	private static int parseDigits(String value, int start, int end) {
+		int result = 0;
+		for (int i = start; i < end; i++) {
+			char c = value.charAt(i);
+			if(c < '0' || c > '9')
+				throw new NumberFormatException("Invalid date: " + value);
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return name().toLowerCase();
+	}
+}
@@ -0,0 +1,90 @@
+package sqlEngine;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * In-mapper aggregation: partial states of each group, kept in memory until the end of the task.
+ * The used memory is estimated for each new group and updated when the states grow. When it reaches the budget all the groups
+ * are sent to the output and the table starts empty again, so memory stays bounded
+ * whatever the number of groups is. The combiner and the reducer merge the states sent in each flush.
+ *
+ * @author Matias Leone
+ */
+public class GroupHashTable {
+
+	/**
+	 * Approximate bytes used by an entry of the map, besides the key bytes and the states
+	 */
+	private final static int ENTRY_OVERHEAD = 256;
+
+	private final Map<RowWritable, PartialAggregates> groups = new HashMap<RowWritable, PartialAggregates>();
+	private final SqlParser sql;
+	private final long memoryBudget;
+	private long usedMemory;
+	private long flushes;
+
+	/**
+	 * @param memoryBudget approximate bytes that the groups may use before a flush
+	 */
+	public GroupHashTable(SqlParser sql, long memoryBudget) {
+		this.sql = sql;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * States of the group with the specified key, created empty if it is a new group.
+	 * The key is copied, so the caller can reuse it.
+	 * If the memory budget is exceeded all the previous groups are flushed first.
+	 */
+	public PartialAggregates getGroup(RowWritable key, TaskInputOutputContext<?, ?, RowWritable, PartialAggregates> context) throws IOException, InterruptedException {
+		//States that grew over the budget
+		if(usedMemory > memoryBudget) {
+			flush(context);
+			flushes++;
+		}
+		
+		PartialAggregates states = groups.get(key);
+		if(states == null) {
+			states = PartialAggregates.forQuery(sql);
+			long entrySize = ENTRY_OVERHEAD + key.getSerializedLength() + states.getMemorySize();
+			if(usedMemory + entrySize > memoryBudget && !groups.isEmpty()) {
+				flush(context);
+				flushes++;
+			}
+			RowWritable groupKey = new RowWritable();
+			groupKey.set(key);
+			groups.put(groupKey, states);
+			usedMemory += entrySize;
+		}
+		return states;
+	}
+
+	/**
+	 * Add the bytes that the states of a group grew after adding values
+	 */
+	public void updateMemory(long delta) {
+		usedMemory += delta;
+	}
+
+	/**
+	 * Write the states of all the groups and leave the table empty
+	 */
+	public void flush(TaskInputOutputContext<?, ?, RowWritable, PartialAggregates> context) throws IOException, InterruptedException {
+		for (Map.Entry<RowWritable, PartialAggregates> entry : groups.entrySet()) {
+			context.write(entry.getKey(), entry.getValue());
+		}
+		groups.clear();
+		usedMemory = 0;
+	}
+
+	/**
+	 * Number of times the table was flushed because it reached the memory budget
+	 */
+	public long getFlushes() {
+		return flushes;
+	}
+}
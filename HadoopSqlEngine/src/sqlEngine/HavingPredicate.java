@@ -0,0 +1,165 @@
+package sqlEngine;
+
+import sqlEngine.SqlParser.HavingColumn;
+import sqlEngine.SqlParser.Operator;
+import sqlEngine.SqlParser.SelectColumn;
+import sqlEngine.SqlParser.SelectColumnType;
+
+/**
+ * HAVING filter compiled once per reducer. Each term is resolved to a column of the group key
+ * or to an aggregate state, and all the terms must be satisfied.
+ * Aggregate results are compared as numbers, group columns with the type of their column.
+ *
+ * @author Matias Leone
+ */
+public abstract class HavingPredicate {
+
+	/**
+	 * Predicate without filters
+	 */
+	public final static HavingPredicate TRUE = new HavingPredicate() {
+		@Override
+		public boolean evaluate(RowWritable key, PartialAggregates aggregates) {
+			return true;
+		}
+	};
+
+	/**
+	 * Check if a group satisfies the filter
+	 * @param key group columns, in select order
+	 * @param aggregates merged states of the group, in select order
+	 */
+	public abstract boolean evaluate(RowWritable key, PartialAggregates aggregates);
+
+
+	/**
+	 * Compile the HAVING terms of the query
+	 * @param selectTypes types of the select columns, from QueryPlan.getSelectTypes()
+	 */
+	public static HavingPredicate compile(SqlParser sql, DataType[] selectTypes) {
+		if(sql.havingColumns.isEmpty())
+			return TRUE;
+		final HavingPredicate[] terms = new HavingPredicate[sql.havingColumns.size()];
+		for (int i = 0; i < terms.length; i++) {
+			terms[i] = compile(sql, sql.havingColumns.get(i), selectTypes);
+		}
+		if(terms.length == 1)
+			return terms[0];
+		return new HavingPredicate() {
+			@Override
+			public boolean evaluate(RowWritable key, PartialAggregates aggregates) {
+				for (HavingPredicate term : terms) {
+					if(!term.evaluate(key, aggregates))
+						return false;
+				}
+				return true;
+			}
+		};
+	}
+
+	private static HavingPredicate compile(SqlParser sql, HavingColumn having, DataType[] selectTypes) {
+		//Position of the column in the key or in the aggregates
+		int keyIndex = 0;
+		int aggIndex = 0;
+		for (int i = 0; i < having.index; i++) {
+			if(sql.selectColumns.get(i).type == SelectColumnType.AGGREGATE) {
+				aggIndex++;
+			} else {
+				keyIndex++;
+			}
+		}
+		SelectColumn selectColumn = sql.selectColumns.get(having.index);
+
+		//Aggregate: compare the result as a number
+		if(selectColumn.type == SelectColumnType.AGGREGATE) {
+			if(having.operator == Operator.LIKE)
+				throw new RuntimeException("Invalid operator for aggregate in having: " + having);
+			try {
+				return new AggregateCompare(aggIndex, having.operator, Double.parseDouble(having.value));
+			} catch (NumberFormatException e) {
+				throw new RuntimeException("Invalid number in having: " + having);
+			}
+		}
+		return new KeyCompare(keyIndex, having.operator, having.value, selectTypes[having.index]);
+	}
+
+	/**
+	 * Check if the result of a comparison satisfies an operator
+	 */
+	private static boolean accept(Operator operator, int result) {
+		switch (operator) {
+		case EQUALS:
+			return result == 0;
+		case NOT_EQUALS:
+			return result != 0;
+		case GREATER:
+			return result > 0;
+		case GREATER_EQ:
+			return result >= 0;
+		case LOWER:
+			return result < 0;
+		case LOWER_EQ:
+			return result <= 0;
+		default:
+			throw new RuntimeException("Invalid operator: " + operator);
+		}
+	}
+
+
+	/**
+	 * Result of an aggregate function compared with a number
+	 */
+	private static class AggregateCompare extends HavingPredicate {
+		private final int aggIndex;
+		private final Operator operator;
+		private final double value;
+		public AggregateCompare(int aggIndex, Operator operator, double value) {
+			this.aggIndex = aggIndex;
+			this.operator = operator;
+			this.value = value;
+		}
+		@Override
+		public boolean evaluate(RowWritable key, PartialAggregates aggregates) {
+			return accept(operator, Double.compare(aggregates.get(aggIndex).getNumber(), value));
+		}
+	}
+
+	/**
+	 * Group column compared with a value. Typed columns are compared as numbers,
+	 * text columns like in WHERE: in lower case for = and LIKE
+	 */
+	private static class KeyCompare extends HavingPredicate {
+		private final int keyIndex;
+		private final Operator operator;
+		private final String value;
+		private final DataType type;
+		@SuppressWarnings("rawtypes")
+		private final Comparable parsedValue;
+		public KeyCompare(int keyIndex, Operator operator, String value, DataType type) {
+			this.keyIndex = keyIndex;
+			this.operator = operator;
+			this.value = value;
+			this.type = type;
+			this.parsedValue = type != DataType.STRING && operator != Operator.LIKE ? type.parseKey(value) : null;
+			if(type != DataType.STRING && operator != Operator.LIKE && parsedValue == null)
+				throw new RuntimeException("Invalid " + type + " value in having: " + value);
+		}
+		@Override
+		public boolean evaluate(RowWritable key, PartialAggregates aggregates) {
+			String colValue = key.getValue(keyIndex);
+			if(operator == Operator.LIKE)
+				return colValue.toLowerCase().contains(value);
+			if(parsedValue != null) {
+				//Values that do not have the type of the column do not satisfy any operator
+				@SuppressWarnings("rawtypes")
+				Comparable parsed = type.parseKey(key, keyIndex);
+				if(parsed == null)
+					return false;
+				return accept(operator, DataType.compareKeys(parsed, parsedValue));
+			}
+			if(operator == Operator.EQUALS)
+				return colValue.toLowerCase().equals(value);
+			return accept(operator, colValue.compareTo(value));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package sqlEngine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Bloom filter with the join keys of a table.
+ * Keys are tested directly over byte ranges, so the caller does not need to copy them.
+ * 
+ * @author Matias Leone
+ */
+public class JoinBloomFilter implements Writable {
+
+	private long[] bits;
+	private int bitsCount;
+	private int hashCount;
+	
+	/**
+	 * Empty filter, to be loaded with readFields()
+	 */
+	public JoinBloomFilter() {
+	}
+	
+	/**
+	 * Creates a filter sized for the specified amount of keys
+	 * @param keysCount expected amount of keys
+	 * @param falsePositiveRate expected rate of false positives
+	 */
+	public JoinBloomFilter(int keysCount, double falsePositiveRate) {
+		keysCount = Math.max(keysCount, 1);
+		bitsCount = (int)Math.ceil(-keysCount * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		bitsCount = Math.max(bitsCount, 64);
+		hashCount = Math.max(1, (int)Math.round((double)bitsCount / keysCount * Math.log(2)));
+		bits = new long[(bitsCount + 63) / 64];
+	}
+	
+	public void add(byte[] bytes, int offset, int length) {
+		int h1 = Utils.hashBytes(bytes, offset, length, 0);
+		int h2 = Utils.hashBytes(bytes, offset, length, h1);
+		for (int i = 0; i < hashCount; i++) {
+			int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitsCount;
+			bits[bit >>> 6] |= 1L << bit;
+		}
+	}
+	
+	/**
+	 * Check if the key may have been added. False means that it was never added
+	 */
+	public boolean mightContain(byte[] bytes, int offset, int length) {
+		int h1 = Utils.hashBytes(bytes, offset, length, 0);
+		int h2 = Utils.hashBytes(bytes, offset, length, h1);
+		for (int i = 0; i < hashCount; i++) {
+			int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitsCount;
+			if((bits[bit >>> 6] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+	
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(bitsCount);
+		out.writeInt(hashCount);
+		for (long b : bits) {
+			out.writeLong(b);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		bitsCount = in.readInt();
+		hashCount = in.readInt();
+		bits = new long[(bitsCount + 63) / 64];
+		for (int i = 0; i < bits.length; i++) {
+			bits[i] = in.readLong();
+		}
+	}
+}
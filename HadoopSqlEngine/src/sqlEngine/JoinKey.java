@@ -0,0 +1,102 @@
+package sqlEngine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Key used in repartition joins: the join key plus a tag with the side of the join.
+ * Rows of the buffered side of the join are sorted before rows of the streamed side with the same join key.
+ * 
+ * @author Matias Leone
+ */
+public class JoinKey implements WritableComparable<JoinKey> {
+
+	public final static byte TAG_BUFFERED = 0;
+	public final static byte TAG_STREAMED = 1;
+	
+	private final Text key = new Text();
+	private byte tag;
+	
+	public void set(String key, byte tag) {
+		this.key.set(key);
+		this.tag = tag;
+	}
+	
+	public Text getKey() {
+		return key;
+	}
+	
+	public byte getTag() {
+		return tag;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		key.write(out);
+		out.writeByte(tag);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		key.readFields(in);
+		tag = in.readByte();
+	}
+
+	@Override
+	public int compareTo(JoinKey o) {
+		int result = key.compareTo(o.key);
+		if(result != 0)
+			return result;
+		return tag - o.tag;
+	}
+	
+	@Override
+	public int hashCode() {
+		return key.hashCode() * 31 + tag;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if(!(obj instanceof JoinKey))
+			return false;
+		JoinKey o = (JoinKey)obj;
+		return key.equals(o.key) && tag == o.tag;
+	}
+	
+	@Override
+	public String toString() {
+		return key + "[" + tag + "]";
+	}
+	
+	
+	/**
+	 * Send all rows with the same join key to the same reducer, no matter the tag
+	 */
+	public static class JoinPartitioner extends Partitioner<JoinKey, Text> {
+		@Override
+		public int getPartition(JoinKey key, Text value, int numPartitions) {
+			return (key.key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+		}
+	}
+	
+	/**
+	 * Group rows of both sides of the join in the same reduce() call
+	 */
+	public static class GroupingComparator extends WritableComparator {
+		public GroupingComparator() {
+			super(JoinKey.class, true);
+		}
+		@SuppressWarnings("rawtypes")
+		@Override
+		public int compare(WritableComparable a, WritableComparable b) {
+			return ((JoinKey)a).key.compareTo(((JoinKey)b).key);
+		}
+	}
+	
+}
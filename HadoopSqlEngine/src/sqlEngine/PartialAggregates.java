@@ -0,0 +1,115 @@
+package sqlEngine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import sqlEngine.SqlParser.AggregateFunction;
+import sqlEngine.SqlParser.SelectColumn;
+import sqlEngine.SqlParser.SelectColumnType;
+
+/**
+ * Value of the main job: the states of the aggregate functions of the SELECT, in order.
+ * Each state is written with its function, so the states can be read without the query.
+ * Queries without aggregate functions send an empty value.
+ *
+ * @author Matias Leone
+ */
+public class PartialAggregates implements Writable {
+
+	private final static AggregateFunction[] FUNCTIONS = AggregateFunction.values();
+	private AggregateState[] states = new AggregateState[0];
+
+	public PartialAggregates() {
+	}
+
+	/**
+	 * Empty states for the specified aggregate columns
+	 */
+	public PartialAggregates(List<SelectColumn> columns) {
+		states = new AggregateState[columns.size()];
+		for (int i = 0; i < states.length; i++) {
+			states[i] = AggregateState.create(columns.get(i));
+		}
+	}
+
+	/**
+	 * Empty states for the aggregate functions of the query
+	 */
+	public static PartialAggregates forQuery(SqlParser sql) {
+		List<SelectColumn> columns = new ArrayList<SelectColumn>();
+		for (SelectColumn c : sql.selectColumns) {
+			if(c.type == SelectColumnType.AGGREGATE) {
+				columns.add(c);
+			}
+		}
+		return new PartialAggregates(columns);
+	}
+
+	public int size() {
+		return states.length;
+	}
+
+	public AggregateState get(int index) {
+		return states[index];
+	}
+
+	/**
+	 * Go back to empty states
+	 */
+	public void reset() {
+		for (AggregateState state : states) {
+			state.reset();
+		}
+	}
+
+	/**
+	 * Add the states of other partial aggregates of the same query
+	 */
+	public void merge(PartialAggregates other) {
+		for (int i = 0; i < states.length; i++) {
+			states[i].merge(other.states[i]);
+		}
+	}
+
+	/**
+	 * Approximate bytes used in memory by the states
+	 */
+	public long getMemorySize() {
+		long size = 16;
+		for (AggregateState state : states) {
+			size += state.getMemorySize();
+		}
+		return size;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, states.length);
+		for (AggregateState state : states) {
+			out.writeByte(state.getFunction().ordinal());
+			state.write(out);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		//Objects are reused by the framework, states are only created when the functions change
+		int size = WritableUtils.readVInt(in);
+		if(size != states.length) {
+			states = new AggregateState[size];
+		}
+		for (int i = 0; i < size; i++) {
+			AggregateFunction function = FUNCTIONS[in.readByte()];
+			if(states[i] == null || states[i].getFunction() != function) {
+				states[i] = AggregateState.create(function);
+			}
+			states[i].readFields(in);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package sqlEngine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DefaultStringifier;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Everything the jobs execute, decided once by the driver: the parsed query, the column types of its tables,
+ * the join strategy of each table, the reducers of each job and whether the main job sorts its output.
+ * The same plan is run by SqlEngine.executeQuery() and shown by EXPLAIN.
+ * It is stored in binary form in the configuration of each job, so tasks do not parse the sql again.
+ * The format starts with VERSION, plans written by a different version are rejected.
+ *
+ * @author Matias Leone
+ */
+public class PhysicalPlan implements Writable {
+
+	public final static int VERSION = 2;
+	private final static String CONF_NAME = "plan";
+
+	private SqlParser sql;
+	private SchemaCatalog catalog;
+	private String[] repartitionTables = new String[0];
+	private boolean bloomFilters;
+	private boolean sortedOutput;
+	private int mainReducers;
+	private int sortReducers;
+	private QueryPlan queryPlan;
+
+	/**
+	 * Plan read with readFields()
+	 */
+	public PhysicalPlan() {
+	}
+
+	public PhysicalPlan(SqlParser sql, SchemaCatalog catalog) {
+		this.sql = sql;
+		this.catalog = catalog;
+		this.queryPlan = new QueryPlan(sql, catalog);
+	}
+
+	/**
+	 * Plan stored by the driver with writeTo()
+	 */
+	public static PhysicalPlan fromConfiguration(Configuration conf) {
+		try {
+			return DefaultStringifier.load(conf, CONF_NAME, PhysicalPlan.class);
+		} catch (IOException e) {
+			throw new RuntimeException("Invalid physical plan in job configuration", e);
+		}
+	}
+
+	/**
+	 * Store the plan in the configuration of a job
+	 */
+	public void writeTo(Configuration conf) {
+		try {
+			DefaultStringifier.store(conf, this, CONF_NAME);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not store physical plan", e);
+		}
+	}
+
+	public SqlParser getSql() {
+		return sql;
+	}
+
+	public SchemaCatalog getCatalog() {
+		return catalog;
+	}
+
+	/**
+	 * Column slots, filters and types derived from the query and the catalog
+	 */
+	public QueryPlan getQueryPlan() {
+		return queryPlan;
+	}
+
+	/**
+	 * Tables joined with a reduce-side join before the main job, their rows come appended to the main row.
+	 * The rest of the joins are broadcast hash joins solved by the mappers
+	 */
+	public String[] getRepartitionTables() {
+		return repartitionTables;
+	}
+
+	public void setRepartitionTables(List<String> repartitionTables) {
+		this.repartitionTables = repartitionTables.toArray(new String[repartitionTables.size()]);
+	}
+	
+	/**
+	 * True if the table is joined with a reduce-side join
+	 */
+	public boolean isRepartitionTable(String table) {
+		for (String t : repartitionTables) {
+			if(t.equals(table))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * True if the mappers skip rows with Bloom filters of the broadcast join keys
+	 */
+	public boolean isBloomFilters() {
+		return bloomFilters;
+	}
+
+	public void setBloomFilters(boolean bloomFilters) {
+		this.bloomFilters = bloomFilters;
+	}
+
+	/**
+	 * True if ORDER BY is solved by the shuffle of the main job, with SortedRowWritable keys
+	 */
+	public boolean isSortedOutput() {
+		return sortedOutput;
+	}
+
+	public void setSortedOutput(boolean sortedOutput) {
+		this.sortedOutput = sortedOutput;
+	}
+
+	/**
+	 * Reducers of the main job, zero if the mappers write the results
+	 */
+	public int getMainReducers() {
+		return mainReducers;
+	}
+
+	public void setMainReducers(int mainReducers) {
+		this.mainReducers = mainReducers;
+	}
+
+	/**
+	 * Reducers requested for the sorting job, zero if there is no sorting job.
+	 * The job may use less of them if the sampled rows do not have enough distinct sort keys
+	 */
+	public int getSortReducers() {
+		return sortReducers;
+	}
+
+	public void setSortReducers(int sortReducers) {
+		this.sortReducers = sortReducers;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, VERSION);
+		sql.write(out);
+		catalog.write(out);
+		WritableUtils.writeStringArray(out, repartitionTables);
+		out.writeBoolean(bloomFilters);
+		out.writeBoolean(sortedOutput);
+		WritableUtils.writeVInt(out, mainReducers);
+		WritableUtils.writeVInt(out, sortReducers);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		int version = WritableUtils.readVInt(in);
+		if(version != VERSION)
+			throw new IOException("Physical plan version " + version + " is not supported, expected version " + VERSION);
+		sql = SqlParser.read(in);
+		catalog = SchemaCatalog.read(in);
+		repartitionTables = WritableUtils.readStringArray(in);
+		bloomFilters = in.readBoolean();
+		sortedOutput = in.readBoolean();
+		mainReducers = WritableUtils.readVInt(in);
+		sortReducers = WritableUtils.readVInt(in);
+		queryPlan = new QueryPlan(sql, catalog);
+	}
+}
@@ -0,0 +1,219 @@
+package sqlEngine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import sqlEngine.SqlParser.AggregateFunction;
+import sqlEngine.SqlParser.Column;
+import sqlEngine.SqlParser.ConditionalOperator;
+import sqlEngine.SqlParser.Join;
+import sqlEngine.SqlParser.JoinClause;
+import sqlEngine.SqlParser.SelectColumn;
+import sqlEngine.SqlParser.WhereClause;
+import sqlEngine.SqlParser.WhereCompoundClause;
+import sqlEngine.SqlParser.WhereSimpleClause;
+
+/**
+ * Execution decisions derived from a parsed query
+ * 
+ * @author Matias Leone
+ */
+public class QueryPlan {
+
+	private final SqlParser sql;
+	private final SchemaCatalog catalog;
+	private final Map<String, List<WhereClause>> tableFilters;
+	private final List<WhereClause> residualFilters;
+	private final Map<String, Set<Integer>> referencedColumns;
+	
+	/**
+	 * @param catalog column types of the tables of the query
+	 */
+	public QueryPlan(SqlParser sql, SchemaCatalog catalog) {
+		this.sql = sql;
+		this.catalog = catalog;
+		
+		//Split WHERE in AND terms. Terms that only use one table are applied to that table before the join
+		tableFilters = new HashMap<String, List<WhereClause>>();
+		residualFilters = new ArrayList<WhereClause>();
+		if(sql.whereClause != null) {
+			List<WhereClause> terms = new ArrayList<WhereClause>();
+			splitConjunction(sql.whereClause, terms);
+			for (WhereClause term : terms) {
+				Set<String> tables = new HashSet<String>();
+				collectTables(term, tables);
+				if(tables.size() == 1) {
+					String table = tables.iterator().next();
+					List<WhereClause> filters = tableFilters.get(table);
+					if(filters == null) {
+						filters = new ArrayList<WhereClause>();
+						tableFilters.put(table, filters);
+					}
+					filters.add(term);
+				} else {
+					residualFilters.add(term);
+				}
+			}
+		}
+		
+		//Columns used by the query in each table, the rest of the columns do not need to be parsed
+		referencedColumns = new HashMap<String, Set<Integer>>();
+		for (SelectColumn selectColumn : sql.selectColumns) {
+			if(selectColumn.column != null) {
+				addReferencedColumn(selectColumn.column.table, selectColumn.column.column);
+			}
+		}
+		for (Join join : sql.joins) {
+			for (JoinClause joinClause : join.joinClauses) {
+				addReferencedColumn(sql.mainTable, joinClause.localColumn);
+				addReferencedColumn(join.table, joinClause.foreignColumn.column);
+			}
+		}
+		if(sql.whereClause != null) {
+			collectColumns(sql.whereClause);
+		}
+		for (Column column : sql.groupByColumns) {
+			addReferencedColumn(column.table, column.column);
+		}
+	}
+	
+	/**
+	 * Parsed query
+	 */
+	public SqlParser getSql() {
+		return sql;
+	}
+	
+	/**
+	 * Column types of the tables of the query
+	 */
+	public SchemaCatalog getCatalog() {
+		return catalog;
+	}
+	
+	/**
+	 * Type of the values produced by each SELECT column, used to sort the results.
+	 * Counts produce LONG values and the rest of the aggregate functions produce DOUBLE values.
+	 */
+	public DataType[] getSelectTypes() {
+		DataType[] types = new DataType[sql.selectColumns.size()];
+		for (int i = 0; i < types.length; i++) {
+			SelectColumn selectColumn = sql.selectColumns.get(i);
+			switch (selectColumn.type) {
+			case COLUMN:
+				types[i] = catalog.getType(selectColumn.column.table, selectColumn.column.column);
+				break;
+			case AGGREGATE:
+				types[i] = isCount(selectColumn.function) ? DataType.LONG : DataType.DOUBLE;
+				break;
+			default:
+				types[i] = DataType.STRING;
+				break;
+			}
+		}
+		return types;
+	}
+	
+	private static boolean isCount(AggregateFunction function) {
+		return function == AggregateFunction.COUNT || function == AggregateFunction.COUNT_DISTINCT || function == AggregateFunction.APPROX_COUNT_DISTINCT;
+	}
+	
+	/**
+	 * Tables of the query: the main table followed by the joined tables.
+	 * Compiled WHERE predicates use this order for the rows of each table.
+	 */
+	public static List<String> getTables(SqlParser sql) {
+		List<String> tables = new ArrayList<String>();
+		tables.add(sql.mainTable);
+		for (Join join : sql.joins) {
+			tables.add(join.table);
+		}
+		return tables;
+	}
+	
+	/**
+	 * WHERE terms that only use the specified table, they can be applied while reading it
+	 * @return list of terms that must be all satisfied (may be empty)
+	 */
+	public List<WhereClause> getTableFilters(String table) {
+		List<WhereClause> filters = tableFilters.get(table);
+		return filters != null ? filters : new ArrayList<WhereClause>();
+	}
+	
+	/**
+	 * WHERE terms that use many tables, they must be applied after all joins
+	 * @return list of terms that must be all satisfied (may be empty)
+	 */
+	public List<WhereClause> getResidualFilters() {
+		return residualFilters;
+	}
+	
+	/**
+	 * Columns of the table used in SELECT, JOIN, WHERE or GROUP BY
+	 * @return sorted column indexes (may be empty)
+	 */
+	public int[] getReferencedColumns(String table) {
+		Set<Integer> columns = referencedColumns.get(table);
+		if(columns == null)
+			return new int[0];
+		int[] result = new int[columns.size()];
+		int i = 0;
+		for (Integer column : columns) {
+			result[i++] = column;
+		}
+		return result;
+	}
+	
+	/**
+	 * Number of leading columns that must be parsed to read all the referenced columns of the table
+	 */
+	public int getColumnsLimit(String table) {
+		int[] columns = getReferencedColumns(table);
+		return columns.length == 0 ? 0 : columns[columns.length - 1] + 1;
+	}
+	
+	private void addReferencedColumn(String table, int column) {
+		Set<Integer> columns = referencedColumns.get(table);
+		if(columns == null) {
+			columns = new TreeSet<Integer>();
+			referencedColumns.put(table, columns);
+		}
+		columns.add(column);
+	}
+	
+	private void collectColumns(WhereClause clause) {
+		if(clause instanceof WhereSimpleClause) {
+			Column column = ((WhereSimpleClause)clause).column;
+			addReferencedColumn(column.table, column.column);
+		} else {
+			WhereCompoundClause compClause = (WhereCompoundClause)clause;
+			collectColumns(compClause.leftClause);
+			collectColumns(compClause.rightClause);
+		}
+	}
+	
+	private void splitConjunction(WhereClause clause, List<WhereClause> terms) {
+		if(clause instanceof WhereCompoundClause && ((WhereCompoundClause)clause).operator == ConditionalOperator.AND) {
+			WhereCompoundClause compClause = (WhereCompoundClause)clause;
+			splitConjunction(compClause.leftClause, terms);
+			splitConjunction(compClause.rightClause, terms);
+		} else {
+			terms.add(clause);
+		}
+	}
+	
+	private void collectTables(WhereClause clause, Set<String> tables) {
+		if(clause instanceof WhereSimpleClause) {
+			tables.add(((WhereSimpleClause)clause).column.table);
+		} else {
+			WhereCompoundClause compClause = (WhereCompoundClause)clause;
+			collectTables(compClause.leftClause, tables);
+			collectTables(compClause.rightClause, tables);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package sqlEngine;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keys recently emitted by a mapper, used by SELECT DISTINCT to skip repeated rows before the shuffle.
+ * The least recently seen keys are evicted when the memory budget is reached, so repeated values
+ * that are close to each other are removed and the combiner and the reducer remove the rest.
+ *
+ * @author Matias Leone
+ */
+public class RecentKeysCache {
+
+	/**
+	 * Approximate bytes used by an entry of the map, besides the key bytes
+	 */
+	private final static int ENTRY_OVERHEAD = 256;
+
+	private final LinkedHashMap<RowWritable, Integer> keys = new LinkedHashMap<RowWritable, Integer>(1024, 0.75f, true);
+	private final long memoryBudget;
+	private long usedMemory;
+
+	/**
+	 * @param memoryBudget approximate bytes that the keys may use
+	 */
+	public RecentKeysCache(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Add a key if it was not seen recently. The key is copied, so the caller can reuse it
+	 * @return true if the key is new and must be emitted
+	 */
+	public boolean add(RowWritable key) {
+		//Seen: it is now the most recent key
+		if(keys.get(key) != null)
+			return false;
+
+		int entrySize = ENTRY_OVERHEAD + key.getSerializedLength();
+		RowWritable copy = new RowWritable();
+		copy.set(key);
+		keys.put(copy, entrySize);
+		usedMemory += entrySize;
+
+		//Evict the least recently seen keys
+		Iterator<Integer> it = keys.values().iterator();
+		while(usedMemory > memoryBudget && keys.size() > 1) {
+			usedMemory -= it.next();
+			it.remove();
+		}
+		return true;
+	}
+}
@@ -6,7 +6,7 @@ package sqlEngine;
  * 
  * @author Matias Leone
  */
-public class Record {
+public class Record implements Row {
 	
 	private int columnsCount;
 	private String[] columns;
@@ -25,9 +25,25 @@ public class Record {
 		}
 	}
 	
+	/**
+	 * Creates new record parsing only the first columns of one line
+	 * @param line line to be parsed
+	 * @param sep column separator
+	 * @param columnsLimit number of columns to parse, the rest of the line is ignored
+	 */
+	public Record(String line, String sep, int columnsLimit) {
+		String[] split = line.split(sep, columnsLimit + 1);
+		columnsCount = Math.min(split.length, columnsLimit);
+		columns = new String[columnsCount];
+		for (int i = 0; i < columnsCount; i++) {
+			columns[i] = split[i].trim();
+		}
+	}
+	
 	/**
 	 * Get value of the specified index
 	 */
+	@Override
 	public String getValue(int colIndex) {
 		if(colIndex < 0 || colIndex >= columns.length)
 			throw new RuntimeException("Invalid column index: " + colIndex);
@@ -0,0 +1,142 @@
+package sqlEngine;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import sqlEngine.SqlParser.Join;
+
+/**
+ * Mappers used in reduce-side joins.
+ * Both sides of the join are tagged and emitted with their join key. The smaller side, chosen by the driver,
+ * is tagged to be buffered by the reducer and the other side is streamed.
+ * 
+ * @author Matias Leone
+ */
+public abstract class RepartitionJoinMapper extends Mapper<Object, Text, JoinKey, Text> {
+
+	private final JoinKey keyWritable = new JoinKey();
+	protected Join join;
+	private String table;
+	private WherePredicate filter;
+	private final Row[] filterRows = new Row[1];
+	private String columnSeparator;
+	private int columnsLimit;
+	protected boolean bufferMainTable;
+	
+	public void setup(Context context) throws IOException, InterruptedException {
+		//Query planned by the driver
+		PhysicalPlan physicalPlan = PhysicalPlan.fromConfiguration(context.getConfiguration());
+		SqlParser sql = physicalPlan.getSql();
+		columnSeparator = context.getConfiguration().get("columnSeparator");
+		bufferMainTable = context.getConfiguration().getBoolean("bufferMainTable", false);
+		
+		//Find the join that we are solving
+		String joinTable = context.getConfiguration().get("joinTable");
+		for (Join j : sql.joins) {
+			if(j.table.equals(joinTable)) {
+				join = j;
+				break;
+			}
+		}
+		if(join == null) {
+			throw new RuntimeException("Invalid join table: " + joinTable);
+		}
+		
+		//WHERE filters that only use this side of the join, and columns that must be parsed to apply them
+		table = getTable(sql);
+		QueryPlan plan = physicalPlan.getQueryPlan();
+		filter = WherePredicate.compile(plan.getTableFilters(table), Collections.singletonList(table), plan.getCatalog());
+		columnsLimit = plan.getColumnsLimit(table);
+	}
+	
+	public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+		//Skip empty lines
+		String line = value.toString();
+		if(line.trim().length() == 0)
+			return;
+		
+		//Apply filters of this table before sending the row to the reducer
+		Record row = new Record(getJoinSide(line), columnSeparator, columnsLimit);
+		filterRows[0] = row;
+		if(!filter.evaluate(filterRows))
+			return;
+		
+		//Extract join key
+		String[] joinValues = new String[join.joinClauses.size()];
+		for (int i = 0; i < joinValues.length; i++) {
+			joinValues[i] = row.getValue(getJoinColumn(i));
+		}
+		
+		keyWritable.set(Utils.getJoinKey(joinValues), getTag());
+		context.write(keyWritable, value);
+	}
+	
+	/**
+	 * Table of this side of the join
+	 */
+	protected abstract String getTable(SqlParser sql);
+	
+	/**
+	 * Part of the line that contains the columns used in the join
+	 */
+	protected abstract String getJoinSide(String line);
+	
+	/**
+	 * Column used by the specified join clause
+	 */
+	protected abstract int getJoinColumn(int clauseIndex);
+	
+	/**
+	 * Tag for this side of the join
+	 */
+	protected abstract byte getTag();
+	
+	
+	/**
+	 * Mapper for the main table. The input may already contain rows of previous joins
+	 */
+	public static class MainTableMapper extends RepartitionJoinMapper {
+		@Override
+		protected String getTable(SqlParser sql) {
+			return sql.mainTable;
+		}
+		@Override
+		protected String getJoinSide(String line) {
+			int index = line.indexOf(SqlEngine.TABLE_SEPARATOR);
+			return index < 0 ? line : line.substring(0, index);
+		}
+		@Override
+		protected int getJoinColumn(int clauseIndex) {
+			return join.joinClauses.get(clauseIndex).localColumn;
+		}
+		@Override
+		protected byte getTag() {
+			return bufferMainTable ? JoinKey.TAG_BUFFERED : JoinKey.TAG_STREAMED;
+		}
+	}
+	
+	/**
+	 * Mapper for the joined table
+	 */
+	public static class JoinTableMapper extends RepartitionJoinMapper {
+		@Override
+		protected String getTable(SqlParser sql) {
+			return join.table;
+		}
+		@Override
+		protected String getJoinSide(String line) {
+			return line;
+		}
+		@Override
+		protected int getJoinColumn(int clauseIndex) {
+			return join.joinClauses.get(clauseIndex).foreignColumn.column;
+		}
+		@Override
+		protected byte getTag() {
+			return bufferMainTable ? JoinKey.TAG_STREAMED : JoinKey.TAG_BUFFERED;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package sqlEngine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Reducer used in reduce-side joins.
+ * Rows of the buffered side (the smaller input, chosen by the driver) arrive first and are kept,
+ * then each row of the other side is combined with all of them. The output row is the main row followed by the join row.
+ * Buffered rows are kept in memory up to the joinMemory budget, the rest are spilled to a local file.
+ * Streamed rows are joined with the rows in memory as they come, and collected in blocks of about joinMemory bytes
+ * that are joined with the spilled rows, so the spill file is read once per block and not once per row.
+ * 
+ * @author Matias Leone
+ */
+public class RepartitionJoinReducer extends Reducer<JoinKey, Text, Text, NullWritable> {
+
+	/**
+	 * Approximate bytes used by each buffered row besides its content
+	 */
+	private final static long ROW_OVERHEAD = 64;
+	
+	private final Text outputWritable = new Text();
+	private byte[] tableSeparator;
+	private final List<Text> bufferedRows = new ArrayList<Text>();
+	private int bufferedCount;
+	private long bufferedMemory;
+	private long joinMemory;
+	private boolean bufferMainTable;
+	private File spillFile;
+	private DataOutputStream spillOut;
+	private int spilledCount;
+	private final Text spilledRow = new Text();
+	private final List<Text> streamedRows = new ArrayList<Text>();
+	private int streamedCount;
+	private long streamedMemory;
+	
+	public void setup(Context context) throws IOException, InterruptedException {
+		joinMemory = context.getConfiguration().getLong("joinMemory", SqlEngine.DEFAULT_JOIN_MEMORY);
+		bufferMainTable = context.getConfiguration().getBoolean("bufferMainTable", false);
+		tableSeparator = SqlEngine.TABLE_SEPARATOR.getBytes("UTF-8");
+		super.setup(context);
+	}
+	
+	public void reduce(JoinKey key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+		clearBuffer();
+		
+		//The key is updated while we iterate, so we can check the tag of each value
+		for (Text value : values) {
+			if(key.getTag() == JoinKey.TAG_BUFFERED) {
+				bufferRow(value);
+				
+			} else {
+				//Join not satisfied, skip all streamed rows with this key
+				if(bufferedCount == 0 && spilledCount == 0)
+					return;
+				
+				for (int i = 0; i < bufferedCount; i++) {
+					writeJoinedRow(bufferedRows.get(i), value, context);
+				}
+				
+				//Spilled rows: joined with a block of streamed rows in one read of the spill file
+				if(spilledCount > 0) {
+					if(streamedCount == streamedRows.size()) {
+						streamedRows.add(new Text());
+					}
+					streamedRows.get(streamedCount++).set(value);
+					streamedMemory += value.getLength() + ROW_OVERHEAD;
+					if(streamedMemory >= joinMemory) {
+						joinSpilledRows(context);
+					}
+				}
+			}
+		}
+		
+		//Last block of streamed rows
+		if(streamedCount > 0) {
+			joinSpilledRows(context);
+		}
+	}
+	
+	public void cleanup(Context context) throws IOException, InterruptedException {
+		clearBuffer();
+		super.cleanup(context);
+	}
+	
+	/**
+	 * Keep a row of the buffered side, in memory or in the spill file if the budget is exceeded
+	 */
+	private void bufferRow(Text value) throws IOException {
+		if(bufferedMemory < joinMemory) {
+			if(bufferedCount == bufferedRows.size()) {
+				bufferedRows.add(new Text());
+			}
+			bufferedRows.get(bufferedCount++).set(value);
+			bufferedMemory += value.getLength() + ROW_OVERHEAD;
+			return;
+		}
+		
+		if(spillOut == null) {
+			spillFile = File.createTempFile("join", ".spill");
+			spillOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+		}
+		value.write(spillOut);
+		spilledCount++;
+	}
+	
+	/**
+	 * Join the block of streamed rows with all the spilled rows, reading the spill file once
+	 */
+	private void joinSpilledRows(Context context) throws IOException, InterruptedException {
+		spillOut.flush();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+		try {
+			for (int i = 0; i < spilledCount; i++) {
+				spilledRow.readFields(in);
+				for (int j = 0; j < streamedCount; j++) {
+					writeJoinedRow(spilledRow, streamedRows.get(j), context);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		streamedCount = 0;
+		streamedMemory = 0;
+	}
+	
+	/**
+	 * Write the main row followed by the join row
+	 */
+	private void writeJoinedRow(Text bufferedRow, Text streamedRow, Context context) throws IOException, InterruptedException {
+		Text mainRow = bufferMainTable ? bufferedRow : streamedRow;
+		Text joinRow = bufferMainTable ? streamedRow : bufferedRow;
+		outputWritable.clear();
+		outputWritable.append(mainRow.getBytes(), 0, mainRow.getLength());
+		outputWritable.append(tableSeparator, 0, tableSeparator.length);
+		outputWritable.append(joinRow.getBytes(), 0, joinRow.getLength());
+		context.write(outputWritable, NullWritable.get());
+	}
+	
+	/**
+	 * Forget the rows of the previous key and delete its spill file
+	 */
+	private void clearBuffer() throws IOException {
+		bufferedCount = 0;
+		bufferedMemory = 0;
+		spilledCount = 0;
+		streamedCount = 0;
+		streamedMemory = 0;
+		if(spillOut != null) {
+			spillOut.close();
+			spillOut = null;
+			spillFile.delete();
+		}
+	}
+}
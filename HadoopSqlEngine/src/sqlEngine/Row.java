@@ -0,0 +1,15 @@
+package sqlEngine;
+
+/**
+ * Read access to the columns of a row
+ * 
+ * @author Matias Leone
+ */
+public interface Row {
+
+	/**
+	 * Get value of the specified index
+	 */
+	public String getValue(int colIndex);
+	
+}
@@ -0,0 +1,52 @@
+package sqlEngine;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * Output of map-only queries: the rows sent by SqlEngineMapper are written as text lines,
+ * with the columns joined by the column separator like SqlEngineReducer does. The values are ignored.
+ *
+ * @author Matias Leone
+ */
+public class RowOutputFormat extends FileOutputFormat<RowWritable, PartialAggregates> {
+
+	private final static byte[] NEW_LINE = {'\n'};
+
+	@Override
+	public RecordWriter<RowWritable, PartialAggregates> getRecordWriter(TaskAttemptContext job) throws IOException, InterruptedException {
+		Configuration conf = job.getConfiguration();
+		Path file = getDefaultWorkFile(job, "");
+		final DataOutputStream out = file.getFileSystem(conf).create(file, false);
+		final byte[] separator = conf.get("columnSeparator").getBytes("UTF-8");
+
+		return new RecordWriter<RowWritable, PartialAggregates>() {
+			private final Text line = new Text();
+
+			@Override
+			public void write(RowWritable key, PartialAggregates value) throws IOException {
+				line.clear();
+				for (int i = 0; i < key.getColumnsCount(); i++) {
+					if(i > 0) {
+						line.append(separator, 0, separator.length);
+					}
+					key.appendTo(i, line);
+				}
+				out.write(line.getBytes(), 0, line.getLength());
+				out.write(NEW_LINE);
+			}
+
+			@Override
+			public void close(TaskAttemptContext context) throws IOException {
+				out.close();
+			}
+		};
+	}
+}
@@ -0,0 +1,306 @@
+package sqlEngine;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Columns of a row read directly from its UTF-8 bytes, without creating Strings.
+ * Columns are located lazily, only up to the last column requested.
+ * The row ends at the end of the bytes or at the first SqlEngine.TABLE_SEPARATOR.
+ * The same view is reused for every row, getValue() is the only method that creates objects.
+ * 
+ * @author Matias Leone
+ */
+public class RowView implements Row {
+
+	private final static byte TABLE_SEPARATOR = (byte)SqlEngine.TABLE_SEPARATOR.charAt(0);
+	private final static String REGEX_CHARS = "\\[](){}.*+?^$|";
+	
+	private final byte[] separator;
+	private byte[] bytes;
+	private int length;
+	private int position;
+	private boolean finished;
+	private int columnsCount;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	
+	/**
+	 * @param separator column separator, it must satisfy isLiteralSeparator()
+	 */
+	public RowView(String separator) {
+		try {
+			this.separator = separator.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Check if the separator has the same meaning as plain text and as the regex used by Record
+	 */
+	public static boolean isLiteralSeparator(String separator) {
+		if(separator.length() == 0)
+			return false;
+		for (int i = 0; i < separator.length(); i++) {
+			if(REGEX_CHARS.indexOf(separator.charAt(i)) >= 0)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Point the view to a new row
+	 */
+	public void set(byte[] bytes, int length) {
+		set(bytes, 0, length);
+	}
+	
+	/**
+	 * Point the view to a new row that starts at the specified offset
+	 * @param length position after the last byte that may belong to the row
+	 */
+	public void set(byte[] bytes, int offset, int length) {
+		this.bytes = bytes;
+		this.length = length;
+		position = offset;
+		finished = false;
+		columnsCount = 0;
+	}
+	
+	/**
+	 * Position of the next SqlEngine.TABLE_SEPARATOR, or length if there is none
+	 */
+	public static int findTableSeparator(byte[] bytes, int offset, int length) {
+		for (int i = offset; i < length; i++) {
+			if(bytes[i] == TABLE_SEPARATOR)
+				return i;
+		}
+		return length;
+	}
+	
+	/**
+	 * Check if the row has the specified column
+	 */
+	public boolean hasColumn(int colIndex) {
+		while(columnsCount <= colIndex && !finished) {
+			parseNextColumn();
+		}
+		return colIndex >= 0 && colIndex < columnsCount;
+	}
+	
+	/**
+	 * Number of columns of the row
+	 */
+	public int getColumnsCount() {
+		while(!finished) {
+			parseNextColumn();
+		}
+		return columnsCount;
+	}
+	
+	/**
+	 * First byte of the column, without leading spaces. The column must exist
+	 */
+	public int getStart(int colIndex) {
+		checkColumn(colIndex);
+		return starts[colIndex];
+	}
+	
+	/**
+	 * Position after the last byte of the column, without trailing spaces. The column must exist
+	 */
+	public int getEnd(int colIndex) {
+		checkColumn(colIndex);
+		return ends[colIndex];
+	}
+	
+	public byte[] getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * Decode the column as a String. The column must exist
+	 */
+	@Override
+	public String getValue(int colIndex) {
+		checkColumn(colIndex);
+		try {
+			return new String(bytes, starts[colIndex], ends[colIndex] - starts[colIndex], "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Parse the column as a long. Values of up to 18 digits are parsed from the bytes, others use Long.parseLong().
+	 * The column must exist
+	 * @throws NumberFormatException if the column is not an integer
+	 */
+	public long getLong(int colIndex) {
+		checkColumn(colIndex);
+		int start = starts[colIndex];
+		int end = ends[colIndex];
+		boolean negative = start < end && bytes[start] == '-';
+		int i = negative || (start < end && bytes[start] == '+') ? start + 1 : start;
+		if(i == end || end - i > 18)
+			return Long.parseLong(getValue(colIndex));
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = bytes[i] - '0';
+			if(digit < 0 || digit > 9)
+				throw new NumberFormatException("For input string: \"" + getValue(colIndex) + "\"");
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Parse the column as a number. Integers are parsed from the bytes, other formats use Double.parseDouble().
+	 * The column must exist
+	 */
+	public double getDouble(int colIndex) {
+		checkColumn(colIndex);
+		int start = starts[colIndex];
+		int end = ends[colIndex];
+		boolean negative = start < end && bytes[start] == '-';
+		int i = negative || (start < end && bytes[start] == '+') ? start + 1 : start;
+		
+		//Integers of up to 15 digits are exact as double, so the result is the same as Double.parseDouble()
+		if(i == end || end - i > 15)
+			return Double.parseDouble(getValue(colIndex));
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = bytes[i] - '0';
+			if(digit < 0 || digit > 9)
+				return Double.parseDouble(getValue(colIndex));
+			value = value * 10 + digit;
+		}
+		return negative ? -(double)value : value;
+	}
+	
+	/**
+	 * Append the bytes of the column to a Text. The column must exist
+	 */
+	public void appendTo(int colIndex, Text text) {
+		checkColumn(colIndex);
+		text.append(bytes, starts[colIndex], ends[colIndex] - starts[colIndex]);
+	}
+	
+	/**
+	 * Check if the column only has ASCII characters. The column must exist
+	 */
+	public boolean isAscii(int colIndex) {
+		checkColumn(colIndex);
+		for (int i = starts[colIndex]; i < ends[colIndex]; i++) {
+			if(bytes[i] < 0)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Compare the column with other bytes, unsigned byte by byte like Text does. The column must exist.
+	 * For ASCII values it gives the same result than String.compareTo()
+	 */
+	public int compareTo(int colIndex, byte[] other, int offset, int length) {
+		checkColumn(colIndex);
+		return WritableComparator.compareBytes(bytes, starts[colIndex], ends[colIndex] - starts[colIndex], other, offset, length);
+	}
+	
+	/**
+	 * Compare the same column of two views. Both columns must exist
+	 */
+	public int compareTo(int colIndex, RowView other) {
+		other.checkColumn(colIndex);
+		return compareTo(colIndex, other.bytes, other.starts[colIndex], other.ends[colIndex] - other.starts[colIndex]);
+	}
+	
+	/**
+	 * Check if the column, converted to lower case, is equal to the value. Only ASCII letters are converted.
+	 * The column must exist
+	 */
+	public boolean equalsLowerCase(int colIndex, byte[] lowerCaseValue) {
+		checkColumn(colIndex);
+		int start = starts[colIndex];
+		if(ends[colIndex] - start != lowerCaseValue.length)
+			return false;
+		for (int i = 0; i < lowerCaseValue.length; i++) {
+			if(toLowerCase(bytes[start + i]) != lowerCaseValue[i])
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Check if the column, converted to lower case, contains the value. Only ASCII letters are converted.
+	 * The column must exist
+	 */
+	public boolean containsLowerCase(int colIndex, byte[] lowerCaseValue) {
+		checkColumn(colIndex);
+		int last = ends[colIndex] - lowerCaseValue.length;
+		for (int i = starts[colIndex]; i <= last; i++) {
+			int j = 0;
+			while(j < lowerCaseValue.length && toLowerCase(bytes[i + j]) == lowerCaseValue[j]) {
+				j++;
+			}
+			if(j == lowerCaseValue.length)
+				return true;
+		}
+		return false;
+	}
+	
+	private static byte toLowerCase(byte b) {
+		return b >= 'A' && b <= 'Z' ? (byte)(b + ('a' - 'A')) : b;
+	}
+	
+	private void checkColumn(int colIndex) {
+		if(!hasColumn(colIndex))
+			throw new RuntimeException("Invalid column index: " + colIndex);
+	}
+	
+	private void parseNextColumn() {
+		//Find end of column
+		int start = position;
+		int end = start;
+		boolean lastColumn = true;
+		while(end < length && bytes[end] != TABLE_SEPARATOR) {
+			if(isSeparatorAt(end)) {
+				lastColumn = false;
+				break;
+			}
+			end++;
+		}
+		position = lastColumn ? end : end + separator.length;
+		finished = lastColumn;
+		
+		//Trim the same characters as String.trim()
+		while(start < end && (bytes[start] & 0xff) <= ' ') {
+			start++;
+		}
+		while(end > start && (bytes[end - 1] & 0xff) <= ' ') {
+			end--;
+		}
+		
+		if(columnsCount == starts.length) {
+			starts = Arrays.copyOf(starts, columnsCount * 2);
+			ends = Arrays.copyOf(ends, columnsCount * 2);
+		}
+		starts[columnsCount] = start;
+		ends[columnsCount] = end;
+		columnsCount++;
+	}
+	
+	private boolean isSeparatorAt(int index) {
+		if(index + separator.length > length)
+			return false;
+		for (int i = 0; i < separator.length; i++) {
+			if(bytes[index + i] != separator[i])
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,450 @@
+package sqlEngine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Row in binary form, used as key of the main job.
+ * Format: VInt columns count, VInt fields length, null bitmap with one bit per column
+ * and the fields of the columns that are not null. Each field has a tag with its type:
+ * integers and dates are VLongs, other values are VInt length followed by the UTF-8 bytes.
+ * Empty values are null. Integers and dates are only stored as numbers when they are
+ * written in canonical form, so the text of every value is restored as it was.
+ * Rows are compared in serialized form by Comparator, registered for this class.
+ *
+ * @author Matias Leone
+ */
+public class RowWritable implements WritableComparable<RowWritable>, Row {
+
+	private final static byte TAG_STRING = 0;
+	private final static byte TAG_LONG = 1;
+	private final static byte TAG_DATE = 2;
+	private final static byte[] DATE_SEPARATOR = {'-'};
+	private final static byte[] COLUMN_SEPARATOR = {','};
+
+	static {
+		WritableComparator.define(RowWritable.class, new Comparator());
+	}
+
+	private int columnsCount;
+	private byte[] nulls = new byte[4];
+	private byte[] data = new byte[64];
+	private int dataLength;
+	private int[] offsets = new int[16];
+	private final byte[] digits = new byte[20];
+
+	/**
+	 * Remove all the columns
+	 */
+	public void clear() {
+		columnsCount = 0;
+		dataLength = 0;
+		Arrays.fill(nulls, (byte)0);
+	}
+
+	/**
+	 * Copy the columns of another row
+	 */
+	public void set(RowWritable other) {
+		clear();
+		ensureColumns(other.columnsCount);
+		ensureData(other.dataLength);
+		columnsCount = other.columnsCount;
+		dataLength = other.dataLength;
+		System.arraycopy(other.nulls, 0, nulls, 0, getNullsLength(columnsCount));
+		System.arraycopy(other.data, 0, data, 0, dataLength);
+		System.arraycopy(other.offsets, 0, offsets, 0, columnsCount);
+	}
+
+	/**
+	 * Add a column of a row, stored according to the type of the column
+	 */
+	public void add(Row row, int colIndex, DataType type) throws IOException {
+		if(row instanceof RowView) {
+			RowView view = (RowView)row;
+			int start = view.getStart(colIndex);
+			add(view.getBytes(), start, view.getEnd(colIndex) - start, type);
+		} else {
+			byte[] bytes = row.getValue(colIndex).getBytes("UTF-8");
+			add(bytes, 0, bytes.length, type);
+		}
+	}
+
+	/**
+	 * Add a column from its UTF-8 bytes, stored according to the type of the column
+	 */
+	public void add(byte[] bytes, int offset, int length, DataType type) {
+		if(length == 0) {
+			addNull();
+		} else if(type.isIntegral() && type != DataType.DATE && isCanonicalLong(bytes, offset, length)) {
+			addNumber(TAG_LONG, parseDigits(bytes, offset, offset + length));
+		} else if(type == DataType.DATE && isDate(bytes, offset, length)) {
+			addNumber(TAG_DATE, parseDigits(bytes, offset, offset + 4) * 10000 + parseDigits(bytes, offset + 5, offset + 7) * 100 + parseDigits(bytes, offset + 8, offset + 10));
+		} else {
+			addString(bytes, offset, length);
+		}
+	}
+
+	/**
+	 * Add a text column
+	 */
+	public void addString(byte[] bytes, int offset, int length) {
+		if(length == 0) {
+			addNull();
+			return;
+		}
+		startColumn();
+		ensureData(dataLength + 1 + 5 + length);
+		data[dataLength++] = TAG_STRING;
+		dataLength += writeVLong(data, dataLength, length);
+		System.arraycopy(bytes, offset, data, dataLength, length);
+		dataLength += length;
+	}
+
+	/**
+	 * Add an empty column
+	 */
+	public void addNull() {
+		startColumn();
+		nulls[(columnsCount - 1) >> 3] |= 1 << ((columnsCount - 1) & 7);
+		offsets[columnsCount - 1] = -1;
+	}
+
+	public int getColumnsCount() {
+		return columnsCount;
+	}
+
+	/**
+	 * Approximate size in bytes of the serialized row
+	 */
+	public int getSerializedLength() {
+		return 10 + getNullsLength(columnsCount) + dataLength;
+	}
+
+	public boolean isNull(int colIndex) {
+		return offsets[colIndex] < 0;
+	}
+
+	@Override
+	public String getValue(int colIndex) {
+		Text text = new Text();
+		appendTo(colIndex, text);
+		return text.toString();
+	}
+
+	/**
+	 * Append the text of a column, empty for null columns
+	 */
+	public void appendTo(int colIndex, Text text) {
+		checkColumn(colIndex);
+		int offset = offsets[colIndex];
+		if(offset < 0)
+			return;
+		byte tag = data[offset];
+		if(tag == TAG_STRING) {
+			int length = (int)readVLong(data, offset + 1);
+			text.append(data, offset + 1 + WritableUtils.decodeVIntSize(data[offset + 1]), length);
+			return;
+		}
+		long value = readVLong(data, offset + 1);
+		if(tag == TAG_DATE) {
+			//yyyy-MM-dd
+			int start = formatDigits(value / 10000, 4);
+			text.append(digits, start, digits.length - start);
+			text.append(DATE_SEPARATOR, 0, 1);
+			start = formatDigits(value / 100 % 100, 2);
+			text.append(digits, start, digits.length - start);
+			text.append(DATE_SEPARATOR, 0, 1);
+			start = formatDigits(value % 100, 2);
+			text.append(digits, start, digits.length - start);
+		} else {
+			int start = formatDigits(value, 1);
+			text.append(digits, start, digits.length - start);
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, columnsCount);
+		WritableUtils.writeVInt(out, dataLength);
+		out.write(nulls, 0, getNullsLength(columnsCount));
+		out.write(data, 0, dataLength);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		clear();
+		int count = WritableUtils.readVInt(in);
+		int length = WritableUtils.readVInt(in);
+		ensureColumns(count);
+		ensureData(length);
+		in.readFully(nulls, 0, getNullsLength(count));
+		in.readFully(data, 0, length);
+		columnsCount = count;
+		dataLength = length;
+
+		//Locate the fields of the columns
+		int offset = 0;
+		for (int i = 0; i < count; i++) {
+			if((nulls[i >> 3] & (1 << (i & 7))) != 0) {
+				offsets[i] = -1;
+			} else {
+				offsets[i] = offset;
+				offset += getFieldLength(data, offset);
+			}
+		}
+	}
+
+	@Override
+	public int compareTo(RowWritable o) {
+		return compareRows(columnsCount, nulls, 0, data, 0, o.columnsCount, o.nulls, 0, o.data, 0);
+	}
+
+	@Override
+	public int hashCode() {
+		return Utils.hashBytes(nulls, 0, getNullsLength(columnsCount), Utils.hashBytes(data, 0, dataLength, columnsCount));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(!(obj instanceof RowWritable))
+			return false;
+		RowWritable o = (RowWritable)obj;
+		return columnsCount == o.columnsCount
+				&& WritableComparator.compareBytes(nulls, 0, getNullsLength(columnsCount), o.nulls, 0, getNullsLength(columnsCount)) == 0
+				&& WritableComparator.compareBytes(data, 0, dataLength, o.data, 0, o.dataLength) == 0;
+	}
+
+	@Override
+	public String toString() {
+		Text text = new Text();
+		for (int i = 0; i < columnsCount; i++) {
+			if(i > 0) {
+				text.append(COLUMN_SEPARATOR, 0, 1);
+			}
+			appendTo(i, text);
+		}
+		return text.toString();
+	}
+
+	private void startColumn() {
+		ensureColumns(columnsCount + 1);
+		offsets[columnsCount] = dataLength;
+		columnsCount++;
+	}
+
+	private void addNumber(byte tag, long value) {
+		startColumn();
+		ensureData(dataLength + 1 + 9);
+		data[dataLength++] = tag;
+		dataLength += writeVLong(data, dataLength, value);
+	}
+
+	private void ensureColumns(int count) {
+		if(count > offsets.length) {
+			offsets = Arrays.copyOf(offsets, Math.max(count, offsets.length * 2));
+		}
+		if(getNullsLength(count) > nulls.length) {
+			nulls = Arrays.copyOf(nulls, Math.max(getNullsLength(count), nulls.length * 2));
+		}
+	}
+
+	private void ensureData(int length) {
+		if(length > data.length) {
+			data = Arrays.copyOf(data, Math.max(length, data.length * 2));
+		}
+	}
+
+	private void checkColumn(int colIndex) {
+		if(colIndex < 0 || colIndex >= columnsCount)
+			throw new RuntimeException("Invalid column index: " + colIndex + ". Row has: " + columnsCount + " columns");
+	}
+
+	/**
+	 * Write the digits of a positive or negative value at the end of the digits buffer
+	 * @return start of the digits
+	 */
+	private int formatDigits(long value, int minDigits) {
+		boolean negative = value < 0;
+		int position = digits.length;
+		do {
+			digits[--position] = (byte)('0' + Math.abs(value % 10));
+			value /= 10;
+			minDigits--;
+		} while(value != 0 || minDigits > 0);
+		if(negative) {
+			digits[--position] = '-';
+		}
+		return position;
+	}
+
+	/**
+	 * Check if the bytes are an integer written as Long.toString() would write it
+	 */
+	private static boolean isCanonicalLong(byte[] bytes, int offset, int length) {
+		int start = offset;
+		int end = offset + length;
+		if(bytes[start] == '-') {
+			start++;
+		}
+		//Up to 18 digits, so it cannot overflow
+		if(start == end || end - start > 18 || (bytes[start] == '0' && (end - start > 1 || start > offset)))
+			return false;
+		for (int i = start; i < end; i++) {
+			if(bytes[i] < '0' || bytes[i] > '9')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Check if the bytes are a date with format yyyy-MM-dd, the format accepted by DataType.parseDate()
+	 */
+	private static boolean isDate(byte[] bytes, int offset, int length) {
+		if(length != 10 || bytes[offset + 4] != '-' || bytes[offset + 7] != '-')
+			return false;
+		for (int i = 0; i < length; i++) {
+			if(i != 4 && i != 7 && (bytes[offset + i] < '0' || bytes[offset + i] > '9'))
+				return false;
+		}
+		long month = parseDigits(bytes, offset + 5, offset + 7);
+		long day = parseDigits(bytes, offset + 8, offset + 10);
+		return month >= 1 && month <= 12 && day >= 1 && day <= 31;
+	}
+
+	/**
+	 * Parse an integer already validated, with optional minus sign
+	 */
+	private static long parseDigits(byte[] bytes, int start, int end) {
+		boolean negative = bytes[start] == '-';
+		long value = 0;
+		for (int i = negative ? start + 1 : start; i < end; i++) {
+			value = value * 10 + (bytes[i] - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Write a VLong in a byte array, with the same encoding as WritableUtils.writeVLong()
+	 * @return number of bytes written
+	 */
+	private static int writeVLong(byte[] bytes, int offset, long value) {
+		if(value >= -112 && value <= 127) {
+			bytes[offset] = (byte)value;
+			return 1;
+		}
+		int len = -112;
+		if(value < 0) {
+			value ^= -1L;
+			len = -120;
+		}
+		long tmp = value;
+		while(tmp != 0) {
+			tmp = tmp >> 8;
+			len--;
+		}
+		bytes[offset] = (byte)len;
+		len = (len < -120) ? -(len + 120) : -(len + 112);
+		for (int idx = len; idx != 0; idx--) {
+			int shiftbits = (idx - 1) * 8;
+			bytes[offset + 1 + len - idx] = (byte)((value & (0xFFL << shiftbits)) >> shiftbits);
+		}
+		return 1 + len;
+	}
+
+	private static int getNullsLength(int columnsCount) {
+		return (columnsCount + 7) >> 3;
+	}
+
+	/**
+	 * Bytes used by the field that starts at the offset, including its tag
+	 */
+	private static int getFieldLength(byte[] bytes, int offset) {
+		int size = WritableUtils.decodeVIntSize(bytes[offset + 1]);
+		if(bytes[offset] == TAG_STRING)
+			return 1 + size + (int)readVLong(bytes, offset + 1);
+		return 1 + size;
+	}
+
+	private static long readVLong(byte[] bytes, int offset) {
+		try {
+			return WritableComparator.readVLong(bytes, offset);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Compare two serialized rows column by column. Null columns go first, integers and dates
+	 * are compared as numbers and text as bytes. Rows with less columns go first if all their columns are equal
+	 */
+	private static int compareRows(int count1, byte[] nulls1, int nullsOffset1, byte[] data1, int offset1,
+			int count2, byte[] nulls2, int nullsOffset2, byte[] data2, int offset2) {
+		int count = Math.min(count1, count2);
+		for (int i = 0; i < count; i++) {
+			boolean null1 = (nulls1[nullsOffset1 + (i >> 3)] & (1 << (i & 7))) != 0;
+			boolean null2 = (nulls2[nullsOffset2 + (i >> 3)] & (1 << (i & 7))) != 0;
+			if(null1 || null2) {
+				if(null1 != null2)
+					return null1 ? -1 : 1;
+				continue;
+			}
+
+			//Different types: order by tag
+			byte tag = data1[offset1];
+			if(tag != data2[offset2])
+				return tag - data2[offset2];
+
+			int result;
+			int length1 = getFieldLength(data1, offset1);
+			int length2 = getFieldLength(data2, offset2);
+			if(tag == TAG_STRING) {
+				int start1 = 1 + WritableUtils.decodeVIntSize(data1[offset1 + 1]);
+				int start2 = 1 + WritableUtils.decodeVIntSize(data2[offset2 + 1]);
+				result = WritableComparator.compareBytes(data1, offset1 + start1, length1 - start1, data2, offset2 + start2, length2 - start2);
+			} else {
+				long value1 = readVLong(data1, offset1 + 1);
+				long value2 = readVLong(data2, offset2 + 1);
+				result = value1 < value2 ? -1 : (value1 == value2 ? 0 : 1);
+			}
+			if(result != 0)
+				return result;
+			offset1 += length1;
+			offset2 += length2;
+		}
+		return count1 - count2;
+	}
+
+
+	/**
+	 * Compare serialized rows without reading them into objects, used by the sort of the shuffle
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(RowWritable.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			try {
+				int count1 = readVInt(b1, s1);
+				int nulls1 = s1 + WritableUtils.decodeVIntSize(b1[s1]);
+				nulls1 += WritableUtils.decodeVIntSize(b1[nulls1]);
+				int count2 = readVInt(b2, s2);
+				int nulls2 = s2 + WritableUtils.decodeVIntSize(b2[s2]);
+				nulls2 += WritableUtils.decodeVIntSize(b2[nulls2]);
+				return compareRows(count1, b1, nulls1, b1, nulls1 + getNullsLength(count1), count2, b2, nulls2, b2, nulls2 + getNullsLength(count2));
+			} catch (IOException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package sqlEngine;
+
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Column types of the tables used by a query.
+ * Each table may declare its types in a SCHEMA_FILE inside its dir, with one type per column
+ * in column order, separated by commas or new lines. Example: int,string,decimal
+ * The file name starts with "_" so it is not read as table data.
+ * Columns without a declared type are STRING.
+ *
+ * @author Matias Leone
+ */
+public class SchemaCatalog {
+
+	public final static String SCHEMA_FILE = "_schema";
+
+	private final Map<String, DataType[]> schemas = new HashMap<String, DataType[]>();
+
+	/**
+	 * Load the schema files of the specified tables. Tables without schema file are not added
+	 */
+	public static SchemaCatalog load(FileSystem hdfs, Path basePath, Collection<String> tables) {
+		SchemaCatalog catalog = new SchemaCatalog();
+		for (String table : tables) {
+			Path file = new Path(basePath, table + "/" + SCHEMA_FILE);
+			try {
+				if(!hdfs.exists(file))
+					continue;
+				StringBuilder sb = new StringBuilder();
+				BufferedReader reader = new BufferedReader(new InputStreamReader(hdfs.open(file), "UTF-8"));
+				try {
+					String line;
+					while((line = reader.readLine()) != null) {
+						sb.append(line).append(",");
+					}
+				} finally {
+					reader.close();
+				}
+				catalog.schemas.put(table, parseTypes(sb.toString()));
+			} catch (IOException e) {
+				throw new RuntimeException("Error loading schema: " + file, e);
+			}
+		}
+		return catalog;
+	}
+
+	/**
+	 * Write the types of each table, sent to the tasks in the PhysicalPlan
+	 */
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, schemas.size());
+		for (Map.Entry<String, DataType[]> entry : schemas.entrySet()) {
+			WritableUtils.writeString(out, entry.getKey());
+			WritableUtils.writeVInt(out, entry.getValue().length);
+			for (DataType type : entry.getValue()) {
+				WritableUtils.writeEnum(out, type);
+			}
+		}
+	}
+
+	/**
+	 * Read a catalog written with write()
+	 */
+	public static SchemaCatalog read(DataInput in) throws IOException {
+		SchemaCatalog catalog = new SchemaCatalog();
+		int count = WritableUtils.readVInt(in);
+		for (int i = 0; i < count; i++) {
+			String table = WritableUtils.readString(in);
+			DataType[] types = new DataType[WritableUtils.readVInt(in)];
+			for (int j = 0; j < types.length; j++) {
+				types[j] = WritableUtils.readEnum(in, DataType.class);
+			}
+			catalog.schemas.put(table, types);
+		}
+		return catalog;
+	}
+
+	/**
+	 * Type of the specified column, STRING if it was not declared
+	 */
+	public DataType getType(String table, int colIndex) {
+		DataType[] types = schemas.get(table);
+		if(types == null || colIndex < 0 || colIndex >= types.length)
+			return DataType.STRING;
+		return types[colIndex];
+	}
+
+	/**
+	 * Declared types of the table separated by commas, empty if it has no schema
+	 */
+	public String getSchema(String table) {
+		DataType[] types = schemas.get(table);
+		if(types == null)
+			return "";
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < types.length; i++) {
+			if(i > 0) {
+				sb.append(",");
+			}
+			sb.append(types[i]);
+		}
+		return sb.toString();
+	}
+
+	private static DataType[] parseTypes(String content) {
+		List<DataType> types = new ArrayList<DataType>();
+		for (String name : content.split("[,|\\s]+")) {
+			if(name.length() > 0) {
+				types.add(DataType.parse(name));
+			}
+		}
+		return types.toArray(new DataType[types.size()]);
+	}
+}
@@ -0,0 +1,230 @@
+package sqlEngine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * ORDER BY columns of a row encoded so that comparing the bytes gives the order of the rows.
+ * Each column starts with a marker: 0 for values that do not have the type of the column, which go first,
+ * and 1 for the rest. Integers are 8 bytes big endian with the sign bit flipped, doubles use the bits
+ * of the value with the same trick and text is the UTF-8 bytes with zero bytes escaped, ended by two zeros.
+ * DESC columns have all their bytes inverted.
+ * Keys are compared in serialized form by Comparator, registered for this class.
+ * RangePartitioner sends ranges of keys to the reducers, so their outputs are sorted one after the other.
+ *
+ * @author Matias Leone
+ */
+public class SortKey implements WritableComparable<SortKey> {
+
+	static {
+		WritableComparator.define(SortKey.class, new Comparator());
+	}
+
+	private byte[] bytes = new byte[32];
+	private int length;
+
+	public void clear() {
+		length = 0;
+	}
+
+	/**
+	 * Copy another key
+	 */
+	public void set(SortKey other) {
+		ensure(other.length);
+		System.arraycopy(other.bytes, 0, bytes, 0, other.length);
+		length = other.length;
+	}
+
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Add a value that does not have the type of its column
+	 */
+	public void addInvalid(boolean descending) {
+		ensure(length + 1);
+		bytes[length++] = (byte)(descending ? 0xFF : 0);
+	}
+
+	public void addLong(long value, boolean descending) {
+		int start = length;
+		ensure(length + 9);
+		bytes[length++] = 1;
+		writeLong(value ^ Long.MIN_VALUE);
+		invert(start, descending);
+	}
+
+	public void addDouble(double value, boolean descending) {
+		int start = length;
+		ensure(length + 9);
+		bytes[length++] = 1;
+		long bits = Double.doubleToLongBits(value);
+		writeLong(bits < 0 ? ~bits : bits ^ Long.MIN_VALUE);
+		invert(start, descending);
+	}
+
+	/**
+	 * Add text from its UTF-8 bytes, sorted by bytes
+	 */
+	public void addString(byte[] value, int offset, int valueLength, boolean descending) {
+		int start = length;
+		ensure(length + 3 + valueLength * 2);
+		bytes[length++] = 1;
+		for (int i = offset; i < offset + valueLength; i++) {
+			bytes[length++] = value[i];
+			//Zero bytes are followed by 0xFF, so the end of the value is the lowest sequence
+			if(value[i] == 0) {
+				bytes[length++] = (byte)0xFF;
+			}
+		}
+		bytes[length++] = 0;
+		bytes[length++] = 0;
+		invert(start, descending);
+	}
+
+	private void writeLong(long value) {
+		for (int i = 56; i >= 0; i -= 8) {
+			bytes[length++] = (byte)(value >>> i);
+		}
+	}
+
+	private void invert(int start, boolean descending) {
+		if(descending) {
+			for (int i = start; i < length; i++) {
+				bytes[i] = (byte)~bytes[i];
+			}
+		}
+	}
+
+	private void ensure(int capacity) {
+		if(capacity > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, length);
+		out.write(bytes, 0, length);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		length = WritableUtils.readVInt(in);
+		ensure(length);
+		in.readFully(bytes, 0, length);
+	}
+
+	@Override
+	public int compareTo(SortKey o) {
+		return WritableComparator.compareBytes(bytes, 0, length, o.bytes, 0, o.length);
+	}
+
+	@Override
+	public int hashCode() {
+		return WritableComparator.hashBytes(bytes, length);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof SortKey && compareTo((SortKey)obj) == 0;
+	}
+
+
+	/**
+	 * Compare serialized keys as bytes, used by the sort of the shuffle
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(SortKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+			int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+			return compareBytes(b1, s1 + n1, l1 - n1, b2, s2 + n2, l2 - n2);
+		}
+	}
+	
+	
+	/**
+	 * Send each range of keys to a reducer, using the split points computed by the driver from a sample of the rows.
+	 * Keys before the first split point go to the first reducer, keys equal or after the last one to the last reducer,
+	 * so the outputs of the reducers concatenated in order are sorted.
+	 */
+	public static class RangePartitioner extends Partitioner<SortKey, Text> implements Configurable {
+		
+		public final static String CONF_NAME = "sortSplitPoints";
+		
+		private Configuration conf;
+		private SortKey[] splitPoints;
+		
+		/**
+		 * Store sorted split points in the configuration of the job, one less than the number of reducers
+		 */
+		public static void setSplitPoints(Configuration conf, List<SortKey> splitPoints) {
+			StringBuilder sb = new StringBuilder();
+			for (SortKey splitPoint : splitPoints) {
+				if(sb.length() > 0) {
+					sb.append(",");
+				}
+				//Empty keys are written as "-" so they are not lost when the value is split
+				if(splitPoint.length == 0) {
+					sb.append("-");
+				}
+				for (int i = 0; i < splitPoint.length; i++) {
+					sb.append(Character.forDigit((splitPoint.bytes[i] >> 4) & 0xF, 16));
+					sb.append(Character.forDigit(splitPoint.bytes[i] & 0xF, 16));
+				}
+			}
+			conf.set(CONF_NAME, sb.toString());
+		}
+		
+		@Override
+		public void setConf(Configuration conf) {
+			this.conf = conf;
+			String[] values = conf.getTrimmedStrings(CONF_NAME);
+			splitPoints = new SortKey[values.length];
+			for (int i = 0; i < values.length; i++) {
+				String value = values[i].equals("-") ? "" : values[i];
+				SortKey splitPoint = new SortKey();
+				splitPoint.ensure(value.length() / 2);
+				for (int j = 0; j < value.length(); j += 2) {
+					splitPoint.bytes[splitPoint.length++] = (byte)Integer.parseInt(value.substring(j, j + 2), 16);
+				}
+				splitPoints[i] = splitPoint;
+			}
+		}
+		
+		@Override
+		public Configuration getConf() {
+			return conf;
+		}
+		
+		@Override
+		public int getPartition(SortKey key, Text value, int numPartitions) {
+			int index = Arrays.binarySearch(splitPoints, key);
+			int partition = index < 0 ? -index - 1 : index + 1;
+			return Math.min(partition, numPartitions - 1);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package sqlEngine;
+
+import java.nio.charset.Charset;
+
+import sqlEngine.SqlParser.SortClause;
+import sqlEngine.SqlParser.SortOrder;
+
+/**
+ * Build the SortKey of the result rows of a query, with the ORDER BY columns.
+ * Typed columns are sorted by their parsed values, text columns by their bytes.
+ *
+ * @author Matias Leone
+ */
+public class SortKeyEncoder {
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private final int[] indices;
+	private final DataType[] types;
+	private final boolean[] descending;
+
+	/**
+	 * @param selectTypes types of the select columns, from QueryPlan.getSelectTypes()
+	 */
+	public SortKeyEncoder(SqlParser sql, DataType[] selectTypes) {
+		indices = new int[sql.sortClauses.size()];
+		types = new DataType[indices.length];
+		descending = new boolean[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			SortClause sortClause = sql.sortClauses.get(i);
+			indices[i] = sortClause.index;
+			types[i] = selectTypes[sortClause.index];
+			descending[i] = sortClause.order == SortOrder.DESC;
+		}
+	}
+
+	/**
+	 * Fill the key with the ORDER BY columns of a result row, with the columns in select order
+	 */
+	public void encode(Row row, SortKey key) {
+		key.clear();
+		for (int i = 0; i < indices.length; i++) {
+			int colIndex = indices[i];
+			DataType type = types[i];
+			try {
+				if(type == DataType.STRING) {
+					if(row instanceof RowView) {
+						RowView view = (RowView)row;
+						int start = view.getStart(colIndex);
+						key.addString(view.getBytes(), start, view.getEnd(colIndex) - start, descending[i]);
+					} else {
+						byte[] bytes = row.getValue(colIndex).getBytes(UTF8);
+						key.addString(bytes, 0, bytes.length, descending[i]);
+					}
+				} else if(type.isIntegral()) {
+					key.addLong(type.parseLong(row, colIndex), descending[i]);
+				} else {
+					key.addDouble(type.parseDouble(row, colIndex), descending[i]);
+				}
+			} catch (NumberFormatException e) {
+				key.addInvalid(descending[i]);
+			}
+		}
+	}
+}
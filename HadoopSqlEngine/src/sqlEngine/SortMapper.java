@@ -2,25 +2,76 @@ package sqlEngine;
 
 import java.io.IOException;
 
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
 /**
- * Mapper used in ORDER BY
+ * Mapper used in ORDER BY and LIMIT. Each row is sent with its sort key, so the rows are sorted by the shuffle.
+ * With LIMIT each mapper only sends its first N rows.
  * 
  * @author Matias Leone
  */
-public class SortMapper extends Mapper<Object, Text, IntWritable, Text> {
+public class SortMapper extends Mapper<Object, Text, SortKey, Text> {
 
-	private final static IntWritable one = new IntWritable(1);
+	private SortRows sortRows;
+	private TopRows topRows;
+	private long sortMemory;
+	
+	public void setup(Context context) throws IOException, InterruptedException {
+		PhysicalPlan plan = PhysicalPlan.fromConfiguration(context.getConfiguration());
+		SqlParser sql = plan.getSql();
+		sortRows = new SortRows(plan, context.getConfiguration().get("columnSeparator"));
+		sortMemory = context.getConfiguration().getLong("sortMemory", SqlEngine.DEFAULT_SORT_MEMORY);
+		if(sql.limit >= 0) {
+			topRows = new TopRows(sql.limit);
+		}
+	}
 	
 	public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
 		//Skip empty lines
-		if(value.toString().trim().length() == 0)
+		if(isBlank(value))
 			return;
 		
-		context.write(one, value);
+		//Limit: keep the first rows
+		if(topRows != null) {
+			topRows.add(sortRows.getKey(value), value);
+			
+			//Too many rows for memory: send all of them, the reducer keeps the first N
+			if(topRows.getMemorySize() > sortMemory) {
+				writeTopRows(context);
+			}
+			return;
+		}
+		
+		context.write(sortRows.getKey(value), value);
+	}
+	
+	public void cleanup(Context context) throws IOException, InterruptedException {
+		if(topRows != null) {
+			writeTopRows(context);
+		}
+	}
+	
+	/**
+	 * Send the kept rows and stop keeping them
+	 */
+	private void writeTopRows(Context context) throws IOException, InterruptedException {
+		for (TopRows.Entry entry : topRows.getSorted()) {
+			context.write(entry.key, entry.row);
+		}
+		topRows = null;
+	}
+	
+	/**
+	 * Check if the line only has the characters removed by String.trim(), without decoding it
+	 */
+	private boolean isBlank(Text value) {
+		byte[] bytes = value.getBytes();
+		for (int i = 0; i < value.getLength(); i++) {
+			if((bytes[i] & 0xff) > ' ')
+				return false;
+		}
+		return true;
 	}
 	
 }
@@ -1,85 +1,58 @@
 package sqlEngine;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
 
-import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 
-import sqlEngine.SqlParser.SortClause;
-import sqlEngine.SqlParser.SortOrder;
-
 /**
- * Reducer used in ORDER BY
+ * Reducer used in ORDER BY and LIMIT.
+ * Rows arrive sorted by their sort keys and each reducer receives a range of keys, so rows are written as they come.
  * 
  * @author Matias Leone
  */
-public class SortReducer extends Reducer<IntWritable, Text, Text, Text> {
+public class SortReducer extends Reducer<SortKey, Text, Text, NullWritable> {
 
-	private final static Text empty = new Text("");
 	private final Text outputWritable = new Text();
+	private final static byte[] COL_SEPARATOR = SqlEngine.COL_SEPARATOR.getBytes();
 	private SqlParser sql;
 	private String columnSeparator;
+	private RowView rowView;
+	private long written;
 	
 	public void setup(Context context) throws IOException, InterruptedException {
-		//Parse sql
-    	sql = new SqlParser(context.getConfiguration().get("sql"), false);
+		//Query planned by the driver
+    	sql = PhysicalPlan.fromConfiguration(context.getConfiguration()).getSql();
     	columnSeparator = context.getConfiguration().get("columnSeparator");
+    	
+    	//Rows are read in place when the separator allows it
+    	if(RowView.isLiteralSeparator(columnSeparator)) {
+    		rowView = new RowView(columnSeparator);
+    	}
 	}
 	
-	public void reduce(IntWritable key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
-		//Load all rows in memory
-		List<Record> rows = new ArrayList<Record>();
+	public void reduce(SortKey key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
 		for (Text text : values) {
-			rows.add(new Record(text.toString(), columnSeparator));
-		}
-		
-		//Sort rows based on order by columns
-		Collections.sort(rows, new Comparator<Record>() {
-			@Override
-			public int compare(Record a, Record b) {
-				int result = 0;
-				for (SortClause sortClause : sql.sortClauses) {
-					String value1 = a.getValue(sortClause.index);
-					String value2 = b.getValue(sortClause.index);
-					
-					result = value1.compareTo(value2);
-					if(result != 0) {
-						result = sortClause.order == SortOrder.ASC ? result : -result;
-						return result;
+			//Limit: the job has a single reducer, so the first N rows are the result
+			if(sql.limit >= 0 && written >= sql.limit)
+				return;
+			written++;
+			
+			//Output row
+			if(rowView != null) {
+				rowView.set(text.getBytes(), text.getLength());
+				outputWritable.clear();
+				for (int i = 0; i < rowView.getColumnsCount(); i++) {
+					if(i > 0) {
+						outputWritable.append(COL_SEPARATOR, 0, COL_SEPARATOR.length);
 					}
+					rowView.appendTo(i, outputWritable);
 				}
-				return result;
+			} else {
+				outputWritable.set(new Record(text.toString(), columnSeparator).toString());
 			}
-		});
-		
-		//Output sorted rows
-		for (Record row : rows) {
-			outputWritable.set(row.toString());
-			context.write(outputWritable, empty);
+			context.write(outputWritable, NullWritable.get());
 		}
-		
 	}
 }
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
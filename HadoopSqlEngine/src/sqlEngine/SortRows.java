@@ -0,0 +1,38 @@
+package sqlEngine;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Sort keys of the result rows of a query, read from the lines written by the main job
+ * with the column separator. Rows are read in place when the separator allows it.
+ * 
+ * @author Matias Leone
+ */
+public class SortRows {
+
+	private final SortKeyEncoder encoder;
+	private final String columnSeparator;
+	private final RowView view;
+	private final SortKey key = new SortKey();
+	
+	public SortRows(PhysicalPlan plan, String columnSeparator) {
+		encoder = new SortKeyEncoder(plan.getSql(), plan.getQueryPlan().getSelectTypes());
+		this.columnSeparator = columnSeparator;
+		view = RowView.isLiteralSeparator(columnSeparator) ? new RowView(columnSeparator) : null;
+	}
+	
+	/**
+	 * Sort key of a result line. The same key object is reused in each call
+	 */
+	public SortKey getKey(Text line) throws IOException {
+		if(view != null) {
+			view.set(line.getBytes(), line.getLength());
+			encoder.encode(view, key);
+		} else {
+			encoder.encode(new Record(line.toString(), columnSeparator), key);
+		}
+		return key;
+	}
+}
@@ -0,0 +1,119 @@
+package sqlEngine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Key of the main job when ORDER BY is solved by its shuffle: the SortKey of the row followed by the row.
+ * Rows are sorted by their sort keys and then by their columns.
+ * GroupingComparator only compares the sort keys, so rows with the same sort key are read in one reduce() call,
+ * with the key updated for each value.
+ *
+ * @author Matias Leone
+ */
+public class SortedRowWritable extends RowWritable {
+
+	static {
+		WritableComparator.define(SortedRowWritable.class, new Comparator());
+	}
+
+	private final SortKey sortKey = new SortKey();
+
+	public SortKey getSortKey() {
+		return sortKey;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		sortKey.write(out);
+		super.write(out);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		sortKey.readFields(in);
+		super.readFields(in);
+	}
+
+	@Override
+	public int compareTo(RowWritable o) {
+		if(o instanceof SortedRowWritable) {
+			int result = sortKey.compareTo(((SortedRowWritable)o).sortKey);
+			if(result != 0)
+				return result;
+		}
+		return super.compareTo(o);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof SortedRowWritable && sortKey.equals(((SortedRowWritable)obj).sortKey) && super.equals(obj);
+	}
+
+	@Override
+	public int hashCode() {
+		return super.hashCode();
+	}
+
+	/**
+	 * Length of the serialized sort key, with its VInt length
+	 */
+	private static int getSortKeyLength(byte[] bytes, int offset) {
+		try {
+			return WritableUtils.decodeVIntSize(bytes[offset]) + WritableComparator.readVInt(bytes, offset);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * Compare the bytes of two serialized sort keys, without their VInt lengths
+	 */
+	private static int compareSortKeys(byte[] b1, int s1, int n1, byte[] b2, int s2, int n2) {
+		int v1 = WritableUtils.decodeVIntSize(b1[s1]);
+		int v2 = WritableUtils.decodeVIntSize(b2[s2]);
+		return WritableComparator.compareBytes(b1, s1 + v1, n1 - v1, b2, s2 + v2, n2 - v2);
+	}
+
+
+	/**
+	 * Compare serialized keys: sort key bytes and then the rows
+	 */
+	public static class Comparator extends WritableComparator {
+
+		private final RowWritable.Comparator rowComparator = new RowWritable.Comparator();
+
+		public Comparator() {
+			super(SortedRowWritable.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			int n1 = getSortKeyLength(b1, s1);
+			int n2 = getSortKeyLength(b2, s2);
+			int result = compareSortKeys(b1, s1, n1, b2, s2, n2);
+			if(result != 0)
+				return result;
+			return rowComparator.compare(b1, s1 + n1, l1 - n1, b2, s2 + n2, l2 - n2);
+		}
+	}
+
+	/**
+	 * Group the rows with the same sort key in the same reduce() call
+	 */
+	public static class GroupingComparator extends WritableComparator {
+
+		public GroupingComparator() {
+			super(SortedRowWritable.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			return compareSortKeys(b1, s1, getSortKeyLength(b1, s1), b2, s2, getSortKeyLength(b2, s2));
+		}
+	}
+}
@@ -1,17 +1,34 @@
 package sqlEngine;
 
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormatCounter;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormatCounter;
+import org.apache.hadoop.util.LineReader;
+
+import sqlEngine.SqlParser.WhereClause;
 
 /**
  * Hadoop SQL engine
@@ -21,12 +38,31 @@ import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 public class SqlEngine {
 
 	public final static String COL_SEPARATOR = ",";
-	public final static String REDURCER_FILES_PATTERN = "part-r-"; 
+	public final static String REDURCER_FILES_PATTERN = "part-";
+	public final static String TABLE_SEPARATOR = "\u0001";
+	public final static long DEFAULT_BROADCAST_THRESHOLD = 64 * 1024 * 1024;
+	public final static String BLOOM_FILTER_EXTENSION = ".bloom";
+	public final static long DEFAULT_AGGREGATION_MEMORY = 32 * 1024 * 1024;
+	public final static long DEFAULT_SORT_MEMORY = 64 * 1024 * 1024;
+	public final static long DEFAULT_JOIN_MEMORY = 64 * 1024 * 1024;
+	public final static String COUNTERS_GROUP = "SqlEngine";
+	private final static double BLOOM_FILTER_FALSE_POSITIVE_RATE = 0.01;
+	private final static int SORT_SAMPLES = 10000;
+	private final static int SORT_SAMPLE_LINES = 10;
 	
 	private Path inputPath;
 	private Path outputPath;
 	private String columnSeparator;
+	private long broadcastThreshold;
+	private long aggregationMemory;
+	private int sortReducers;
+	private long sortMemory;
+	private long joinMemory;
+	private Path cacheDir;
 	private FileSystem hdfs;
+	private final Map<String, Job> executedJobs = new HashMap<String, Job>();
+	private final Map<String, Long> jobTimes = new HashMap<String, Long>();
+	private PhysicalPlan executedPlan;
 	
 	/**
 	 * Command-line entry-point
@@ -44,6 +80,18 @@ public class SqlEngine {
 				engine.setOutputPath(new Path(args[i + 1]));
 			} else if(args[i].equals("-sep") && i < args.length - 1) {
 				engine.setColumnSeparator(args[i + 1]);
+			} else if(args[i].equals("-broadcastThreshold") && i < args.length - 1) {
+				engine.setBroadcastThreshold(Long.parseLong(args[i + 1]));
+			} else if(args[i].equals("-aggregationMemory") && i < args.length - 1) {
+				engine.setAggregationMemory(Long.parseLong(args[i + 1]));
+			} else if(args[i].equals("-sortMemory") && i < args.length - 1) {
+				engine.setSortMemory(Long.parseLong(args[i + 1]));
+			} else if(args[i].equals("-joinMemory") && i < args.length - 1) {
+				engine.setJoinMemory(Long.parseLong(args[i + 1]));
+			} else if(args[i].equals("-sortReducers") && i < args.length - 1) {
+				engine.setSortReducers(Integer.parseInt(args[i + 1]));
+			} else if(args[i].equals("-cacheDir") && i < args.length - 1) {
+				engine.setCacheDir(new Path(args[i + 1]));
 			} else if(args[i].equals("-showResults")) {
 				outputResults = true;
 			} else if(args[i].equals("-sql") && i < args.length - 1) {
@@ -52,15 +100,29 @@ public class SqlEngine {
 		}
 		if(sql == null) {
 			System.err.println("sql not specified.");
-			System.err.println("Usage:");
-			System.err.println("$HADOOP_HOME/bin/hadoop jar HadoopSqlEngine.jar sqlEngine.SqlEngine -input home/input -output home/output -sep \",\" -showResults -sql \"SELECT user.1 FROM user\"");
+			System.err.println("Usage (the sql may start with EXPLAIN or EXPLAIN ANALYZE):");
+			System.err.println("$HADOOP_HOME/bin/hadoop jar HadoopSqlEngine.jar sqlEngine.SqlEngine -input home/input -output home/output -sep \",\" -broadcastThreshold 67108864 -aggregationMemory 33554432 -sortReducers 4 -sortMemory 67108864 -joinMemory 67108864 -cacheDir home/cache -showResults -sql \"SELECT user.1 FROM user\"");
 			System.exit(1);
 		}
 		
+		//Explain: show the jobs of the query. With analyze the query is executed and the jobs show their counters
+		String[] words = sql.trim().split("\\s+", 3);
+		if(words[0].equalsIgnoreCase("explain")) {
+			boolean analyze = words.length > 2 && words[1].equalsIgnoreCase("analyze");
+			String explain = engine.explain(sql.trim().replaceFirst("(?i)^explain\\s+(analyze\\s+)?", ""), analyze);
+			if(analyze && outputResults) {
+				engine.displayResults();
+			}
+			System.out.println("=============================EXPLAIN=============================\n");
+			System.out.println(explain);
+			System.out.println("=================================================================");
+			
 		//Execute
-		engine.executeQuery(sql);
-		if(outputResults) {
-			engine.displayResults();
+		} else {
+			engine.executeQuery(sql);
+			if(outputResults) {
+				engine.displayResults();
+			}
 		}
 		
 		//Dipose
@@ -73,8 +135,13 @@ public class SqlEngine {
 	 */
 	public SqlEngine() {
 		columnSeparator = COL_SEPARATOR;
+		broadcastThreshold = DEFAULT_BROADCAST_THRESHOLD;
+		aggregationMemory = DEFAULT_AGGREGATION_MEMORY;
+		sortMemory = DEFAULT_SORT_MEMORY;
+		joinMemory = DEFAULT_JOIN_MEMORY;
 		inputPath = new Path("input");
 		outputPath = new Path("output");
+		cacheDir = new Path("cache");
 		
 		//Connect to HDFS
 		try {
@@ -96,28 +163,62 @@ public class SqlEngine {
 		System.out.println("- "  + "input path: " + inputPath);
 		System.out.println("- "  + "output path: " + outputPath);
 		System.out.println("- "  + "column separator: " + columnSeparator);
+		System.out.println("- "  + "broadcast threshold: " + broadcastThreshold);
+		System.out.println("- "  + "aggregation memory: " + aggregationMemory);
+		System.out.println("- "  + "sort memory: " + sortMemory);
+		System.out.println("- "  + "join memory: " + joinMemory);
+		System.out.println("- "  + "sort reducers: " + (sortReducers > 0 ? sortReducers : "same as main job"));
+		System.out.println("- "  + "cache path: " + cacheDir);
 		System.out.println("- "  + "sql: ");
 		System.out.println(sql);
 		System.out.println("=====================================================================");
 		
 		
+		executedJobs.clear();
+		jobTimes.clear();
 		try {
 			Configuration mainConf = new Configuration();
 			final String basePath = inputPath.toString();
 			
 			//Parse sql
-			mainConf.set("sql", sql);
 			mainConf.set("columnSeparator", columnSeparator);
-			SqlParser sqlParser = new SqlParser(sql, true);
+			mainConf.setLong("aggregationMemory", aggregationMemory);
+			mainConf.setLong("sortMemory", sortMemory);
+			
+			//Decide how the query runs. The plan is sent to every job, so tasks do not parse the sql again
+			PhysicalPlan physicalPlan = planQuery(sql, mainConf);
+			executedPlan = physicalPlan;
+			SqlParser sqlParser = physicalPlan.getSql();
+			QueryPlan plan = physicalPlan.getQueryPlan();
 			
 			//Set main job
 			Job mainJob = Job.getInstance(mainConf, "SqlEngine-Main");
 			mainJob.setOutputKeyClass(Text.class);
-			mainJob.setOutputValueClass(Text.class);
+			mainJob.setOutputValueClass(NullWritable.class);
 			mainJob.setJarByClass(SqlEngine.class);
+			mainJob.setMapOutputKeyClass(RowWritable.class);
+			mainJob.setMapOutputValueClass(PartialAggregates.class);
 			mainJob.setMapperClass(SqlEngineMapper.class);
 			mainJob.setReducerClass(SqlEngineReducer.class);
 			
+			mainJob.setNumReduceTasks(physicalPlan.getMainReducers());
+			
+			//Order by without grouping: the rows are sorted by the shuffle of this job instead of a sorting job
+			if(physicalPlan.isSortedOutput()) {
+				mainJob.setMapOutputKeyClass(SortedRowWritable.class);
+				mainJob.setGroupingComparatorClass(SortedRowWritable.GroupingComparator.class);
+			}
+			
+			//No reducers: the mappers write the results, without shuffle
+			if(physicalPlan.getMainReducers() == 0) {
+				mainJob.setOutputFormatClass(RowOutputFormat.class);
+			}
+			
+			//Aggregate functions and distinct: partial states of each group are merged before the shuffle
+			if(sqlParser.requireGrouping || sqlParser.distinct) {
+				mainJob.setCombinerClass(SqlEngineCombiner.class);
+			}
+			
 			//Clean output dir
 			if(hdfs.exists(outputPath)) {
 				hdfs.delete(outputPath, true);
@@ -128,55 +229,84 @@ public class SqlEngine {
 			Path tmpDir = new Path("tmp");
 			Utils.createNewDir(hdfs, tmpDir);
 			
-			//Add main table to input
+			//Files shipped to the mappers, kept between queries
+			BroadcastCache broadcastCache = new BroadcastCache(hdfs, cacheDir);
+			
+			//Main table
 			Path mainTablePath = new Path(basePath + "/" + sqlParser.mainTable);
-			FileInputFormat.addInputPath(mainJob, mainTablePath);
 			
-			//Add secondary tables to distributed cache
+			//Add secondary tables to distributed cache. Tables of reduce-side joins are joined in previous jobs
 			for (SqlParser.Join join : sqlParser.joins) {
-				
-				//Check if path exists
+				if(physicalPlan.isRepartitionTable(join.table))
+					continue;
 				Path joinTableDir = new Path(basePath + "/" + join.table + "/");
-				if(!hdfs.exists(joinTableDir)) {
-					throw new RuntimeException("Table: " + join.table + " does not exist in: " + joinTableDir.toString());
+				
+				//Hash table and Bloom filter with the join keys, built once and reused between queries
+				String variant = getJoinTableVariant(plan, join);
+				Path tableFile = broadcastCache.getArtifactPath(join.table, joinTableDir, variant, CachedTable.FILE_EXTENSION);
+				Path filterFile = broadcastCache.getArtifactPath(join.table, joinTableDir, variant, BLOOM_FILTER_EXTENSION);
+				if(!hdfs.exists(tableFile) || !hdfs.exists(filterFile)) {
+					buildJoinTable(plan, join, joinTableDir, broadcastCache, tableFile, filterFile);
 				}
 				
-				//Check how many files we have in that dir
-				FileStatus[] fileStatus = hdfs.listStatus(joinTableDir);
-				if(fileStatus.length == 0) {
-					throw new RuntimeException("There is no file for table: " + join.table + " in dir: " + joinTableDir.toString());
-				} else if(fileStatus.length == 1) {
-					mainJob.addCacheFile(fileStatus[0].getPath().toUri());
-				} else {
-					//There are many files, merge them all in one temp file
-					Path tmpFile = new Path(tmpDir.toString() + "/" + sqlParser.joins + ".tmp");
-					Utils.mergeFiles(hdfs, joinTableDir, tmpFile);
-					mainJob.addCacheFile(tmpFile.toUri());
+				//Mappers read the table from the local copy created by the framework, linked with the same name
+				URI tableUri = tableFile.toUri();
+				mainJob.addCacheFile(new URI(tableUri.getScheme(), tableUri.getAuthority(), tableUri.getPath(), null, tableFile.getName()));
+				if(physicalPlan.isBloomFilters()) {
+					mainJob.addCacheFile(filterFile.toUri());
 				}
 			}
 			
+			//Reduce-side joins: each job appends the rows of one table to the main table rows
+			Path mainInputPath = mainTablePath;
+			for (String table : physicalPlan.getRepartitionTables()) {
+				Path joinOutputPath = new Path(tmpDir.toString() + "/join-" + table);
+				executeRepartitionJoin(physicalPlan, getJoin(sqlParser, table), mainInputPath, new Path(basePath + "/" + table + "/"), joinOutputPath);
+				mainInputPath = joinOutputPath;
+			}
+			physicalPlan.writeTo(mainJob.getConfiguration());
+			
+			//Add main table to input
+			FileInputFormat.addInputPath(mainJob, mainInputPath);
+			
 			//Execute
-			mainJob.waitForCompletion(true);
+			if(!runJob(mainJob)) {
+				throw new RuntimeException("Main job failed");
+			}
 			
 			//Clean temp dir
 			Utils.deleteDirRecursive(hdfs, tmpDir);
 
-			//Apply sorting phase
-			if(sqlParser.sortClauses.size() > 0) {
+			//Apply sorting phase. Limit also needs it to keep N rows from all the reducers
+			if(physicalPlan.getSortReducers() > 0) {
 
 				//Merge results into temp folder
 				Utils.moveReducerResults(hdfs, outputPath, REDURCER_FILES_PATTERN, tmpDir);
 				
 				//Create sorting job 
 				Configuration sortConf = new Configuration();
-				sortConf.set("sql", sql);
 				sortConf.set("columnSeparator", columnSeparator);
+				sortConf.setLong("sortMemory", sortMemory);
+				physicalPlan.writeTo(sortConf);
+				
+				//Rows are sorted by the shuffle. Each reducer gets a range of sort keys, computed from a sample of the rows
+				int numSortReducers = physicalPlan.getSortReducers();
+				if(numSortReducers > 1) {
+					List<SortKey> splitPoints = sampleSplitPoints(tmpDir, new SortRows(physicalPlan, columnSeparator), numSortReducers);
+					SortKey.RangePartitioner.setSplitPoints(sortConf, splitPoints);
+					numSortReducers = splitPoints.size() + 1;
+				}
+				
 				Job sortJob = Job.getInstance(sortConf, "SqlEngine-Sorting");
-				sortJob.setOutputKeyClass(IntWritable.class);
-				sortJob.setOutputValueClass(Text.class);
+				sortJob.setJarByClass(SqlEngine.class);
+				sortJob.setMapOutputKeyClass(SortKey.class);
+				sortJob.setMapOutputValueClass(Text.class);
+				sortJob.setOutputKeyClass(Text.class);
+				sortJob.setOutputValueClass(NullWritable.class);
 				sortJob.setMapperClass(SortMapper.class);
 				sortJob.setReducerClass(SortReducer.class);
-				sortJob.setNumReduceTasks(1);
+				sortJob.setPartitionerClass(SortKey.RangePartitioner.class);
+				sortJob.setNumReduceTasks(numSortReducers);
 				FileInputFormat.addInputPath(sortJob, tmpDir);
 				FileOutputFormat.setOutputPath(sortJob, outputPath);
 				
@@ -186,7 +316,9 @@ public class SqlEngine {
 				}
 				
 				//Execute
-				sortJob.waitForCompletion(true);
+				if(!runJob(sortJob)) {
+					throw new RuntimeException("Sorting job failed");
+				}
 				
 				//Clean temp dir
 				Utils.deleteDirRecursive(hdfs, tmpDir);
@@ -206,6 +338,399 @@ public class SqlEngine {
 
 	}
 	
+	/**
+	 * Describe the jobs of a query: join strategies, combiner, reducers and sorting.
+	 * With analyze the query is executed first and each operator shows the rows, bytes and time of its job counters.
+	 * Rows of the operators of the main mapper are the rows left after each one.
+	 * @return plan as text
+	 */
+	public String explain(String sql, boolean analyze) {
+		try {
+			//Plan run by executeQuery(), or the same planning without running it
+			PhysicalPlan physicalPlan;
+			if(analyze) {
+				executeQuery(sql);
+				physicalPlan = executedPlan;
+			} else {
+				executedJobs.clear();
+				jobTimes.clear();
+				physicalPlan = planQuery(sql, new Configuration());
+			}
+			SqlParser sqlParser = physicalPlan.getSql();
+			QueryPlan plan = physicalPlan.getQueryPlan();
+			boolean sortedOutput = physicalPlan.isSortedOutput();
+			StringBuilder sb = new StringBuilder();
+			
+			//Join strategies
+			List<SqlParser.Join> broadcastJoins = new ArrayList<SqlParser.Join>();
+			for (SqlParser.Join join : sqlParser.joins) {
+				if(!physicalPlan.isRepartitionTable(join.table)) {
+					broadcastJoins.add(join);
+				}
+			}
+			
+			//Reduce-side joins
+			String input = sqlParser.mainTable;
+			for (String table : physicalPlan.getRepartitionTables()) {
+				SqlParser.Join join = getJoin(sqlParser, table);
+				Job job = executedJobs.get("SqlEngine-Join-" + join.table);
+				appendLine(sb, 0, "Job SqlEngine-Join-" + join.table + ": reduce-side join", getTimeStats(job));
+				appendLine(sb, 1, "Map: scan " + input + " and " + join.table + ", filter each side, emit rows by join key " + join.joinClauses, getMapStats(job));
+				appendLine(sb, 1, "Reduce: keep the rows of the smaller side, up to " + joinMemory + " bytes in memory, and append the "
+						+ join.table + " rows to the " + input + " rows with the same key", getReduceStats(job));
+				input = input + " JOIN " + join.table;
+			}
+			
+			//Main job
+			Job mainJob = executedJobs.get("SqlEngine-Main");
+			boolean mapOnly = physicalPlan.getMainReducers() == 0;
+			appendLine(sb, 0, "Job SqlEngine-Main", getTimeStats(mainJob));
+			appendLine(sb, 1, "Map", null);
+			long rows = getCounter(mainJob, TaskCounter.MAP_INPUT_RECORDS);
+			appendLine(sb, 2, "Scan " + input, mainJob != null ? "rows=" + rows + " bytes=" + getCounter(mainJob, FileInputFormatCounter.BYTES_READ) : null);
+			
+			//Operators of the mapper, in the order of SqlEngineMapper.map()
+			if(physicalPlan.isBloomFilters()) {
+				rows -= getCounter(mainJob, SqlEngineMapper.COUNTER_BLOOM_SKIPPED);
+				appendLine(sb, 2, "Bloom filter semi-join with " + broadcastJoins, getRowStats(mainJob, rows));
+			}
+			List<WhereClause> mainFilters = plan.getTableFilters(sqlParser.mainTable);
+			if(!mainFilters.isEmpty()) {
+				rows -= getCounter(mainJob, SqlEngineMapper.COUNTER_MAIN_FILTERED);
+				appendLine(sb, 2, "Filter: " + mainFilters, getRowStats(mainJob, rows));
+			}
+			for (int i = 0; i < broadcastJoins.size(); i++) {
+				SqlParser.Join join = broadcastJoins.get(i);
+				List<WhereClause> joinFilters = plan.getTableFilters(join.table);
+				String text = "Broadcast hash join with " + join.table + " ON " + join.joinClauses + (joinFilters.isEmpty() ? "" : ", table filtered by " + joinFilters);
+				
+				//Rows produced by the joins are counted for all of them. A row may match many rows of each table
+				if(i == broadcastJoins.size() - 1) {
+					appendLine(sb, 2, text, getRowStats(mainJob, getCounter(mainJob, SqlEngineMapper.COUNTER_JOINED)));
+				} else {
+					appendLine(sb, 2, text, null);
+				}
+			}
+			rows = getCounter(mainJob, SqlEngineMapper.COUNTER_JOINED);
+			if(!plan.getResidualFilters().isEmpty()) {
+				rows -= getCounter(mainJob, SqlEngineMapper.COUNTER_RESIDUAL_FILTERED);
+				appendLine(sb, 2, "Filter: " + plan.getResidualFilters(), getRowStats(mainJob, rows));
+			}
+			appendLine(sb, 2, "Project: " + sqlParser.selectColumns, null);
+			if(sqlParser.requireGrouping && aggregationMemory > 0) {
+				appendLine(sb, 2, "Hash aggregate in memory, up to " + aggregationMemory + " bytes",
+						mainJob != null ? "flushes=" + getCounter(mainJob, SqlEngineMapper.COUNTER_FLUSHES) : null);
+			}
+			if(sqlParser.distinct && !sqlParser.requireGrouping && aggregationMemory > 0) {
+				rows -= getCounter(mainJob, SqlEngineMapper.COUNTER_DISTINCT_SKIPPED);
+				appendLine(sb, 2, "Skip rows sent recently, up to " + aggregationMemory + " bytes", getRowStats(mainJob, rows));
+			}
+			if(sortedOutput) {
+				appendLine(sb, 2, "Sort key: ORDER BY " + sqlParser.sortClauses + (sqlParser.limit >= 0 ? ", first " + sqlParser.limit + " rows of each mapper" : ""), null);
+			}
+			appendLine(sb, 2, "Output", mainJob != null ? "rows=" + getCounter(mainJob, TaskCounter.MAP_OUTPUT_RECORDS)
+					+ (mapOnly ? " bytes=" + getCounter(mainJob, FileOutputFormatCounter.BYTES_WRITTEN) : " bytes=" + getCounter(mainJob, TaskCounter.MAP_OUTPUT_BYTES)) : null);
+			
+			//Shuffle and reducers
+			if(mapOnly) {
+				appendLine(sb, 1, "No reducers: the mappers write the results", null);
+			} else {
+				int reducers = physicalPlan.getMainReducers();
+				if(sqlParser.requireGrouping || sqlParser.distinct) {
+					appendLine(sb, 1, "Combine: merge the partial states of each group", mainJob != null ? "rows in=" + getCounter(mainJob, TaskCounter.COMBINE_INPUT_RECORDS)
+							+ " rows out=" + getCounter(mainJob, TaskCounter.COMBINE_OUTPUT_RECORDS) : null);
+				}
+				appendLine(sb, 1, "Shuffle: " + reducers + " reducers, " + (sortedOutput ? "rows sorted by ORDER BY " + sqlParser.sortClauses : "hash partitioned by " + (sqlParser.requireGrouping ? "group" : "row")),
+						mainJob != null ? "bytes=" + getCounter(mainJob, TaskCounter.REDUCE_SHUFFLE_BYTES) : null);
+				String reduce;
+				if(sqlParser.requireGrouping) {
+					reduce = "Reduce: merge the aggregates of each group" + (sqlParser.havingColumns.isEmpty() ? "" : ", HAVING " + sqlParser.havingColumns);
+				} else if(sqlParser.distinct) {
+					reduce = "Reduce: write each distinct row once";
+				} else {
+					reduce = "Reduce: write the rows in order";
+				}
+				if(sqlParser.limit >= 0) {
+					reduce += sortedOutput ? ", first " + sqlParser.limit + " rows" : ", first " + sqlParser.limit + " rows of each reducer";
+				}
+				appendLine(sb, 1, reduce, getReduceStats(mainJob));
+			}
+			
+			//Sorting job
+			if(physicalPlan.getSortReducers() > 0) {
+				Job sortJob = executedJobs.get("SqlEngine-Sorting");
+				int reducers = physicalPlan.getSortReducers();
+				if(sortJob != null) {
+					reducers = sortJob.getNumReduceTasks();
+				}
+				appendLine(sb, 0, "Job SqlEngine-Sorting", getTimeStats(sortJob));
+				appendLine(sb, 1, "Map: sort key of each row, ORDER BY " + sqlParser.sortClauses + (sqlParser.limit >= 0 ? ", first " + sqlParser.limit + " rows of each mapper" : ""), getMapStats(sortJob));
+				appendLine(sb, 1, "Shuffle: " + (reducers > 1 ? "ranges of sort keys sampled from the rows, " + reducers + " reducers" : "1 reducer"),
+						sortJob != null ? "bytes=" + getCounter(sortJob, TaskCounter.REDUCE_SHUFFLE_BYTES) : null);
+				appendLine(sb, 1, "Reduce: write the rows in order" + (sqlParser.limit >= 0 ? ", first " + sqlParser.limit + " rows" : ""), getReduceStats(sortJob));
+			}
+			
+			return sb.toString();
+			
+		} catch (Exception e) {
+			throw new RuntimeException("Error explaining query: \n" + sql, e);
+		}
+	}
+	
+	private void appendLine(StringBuilder sb, int depth, String text, String actual) {
+		for (int i = 0; i < depth; i++) {
+			sb.append("    ");
+		}
+		sb.append(text);
+		if(actual != null) {
+			sb.append("  (actual ").append(actual).append(")");
+		}
+		sb.append("\n");
+	}
+	
+	/**
+	 * Value of a counter of an executed job, zero if the job was not executed
+	 */
+	private long getCounter(Job job, Enum<?> counter) throws IOException {
+		return job != null ? job.getCounters().findCounter(counter).getValue() : 0;
+	}
+	
+	private long getCounter(Job job, String name) throws IOException {
+		return job != null ? job.getCounters().findCounter(COUNTERS_GROUP, name).getValue() : 0;
+	}
+	
+	private String getRowStats(Job job, long rows) {
+		return job != null ? "rows=" + rows : null;
+	}
+	
+	private String getTimeStats(Job job) {
+		return job != null ? "time=" + Utils.printDouble(jobTimes.get(job.getJobName()) / 1000.0) + "s" : null;
+	}
+	
+	private String getMapStats(Job job) throws IOException {
+		if(job == null)
+			return null;
+		return "rows in=" + getCounter(job, TaskCounter.MAP_INPUT_RECORDS) + " rows out=" + getCounter(job, TaskCounter.MAP_OUTPUT_RECORDS)
+				+ " bytes in=" + getCounter(job, FileInputFormatCounter.BYTES_READ) + " bytes out=" + getCounter(job, TaskCounter.MAP_OUTPUT_BYTES);
+	}
+	
+	private String getReduceStats(Job job) throws IOException {
+		if(job == null)
+			return null;
+		return "groups=" + getCounter(job, TaskCounter.REDUCE_INPUT_GROUPS) + " rows in=" + getCounter(job, TaskCounter.REDUCE_INPUT_RECORDS)
+				+ " rows out=" + getCounter(job, TaskCounter.REDUCE_OUTPUT_RECORDS) + " bytes out=" + getCounter(job, FileOutputFormatCounter.BYTES_WRITTEN);
+	}
+	
+	/**
+	 * Join the main table with a table that does not fit in mapper memory, using a reduce-side join.
+	 * Each output row contains the main input row and the joined row, separated by TABLE_SEPARATOR
+	 */
+	private void executeRepartitionJoin(PhysicalPlan physicalPlan, SqlParser.Join join, Path mainInputPath, Path joinTableDir, Path outputPath) throws Exception {
+		Configuration joinConf = new Configuration();
+		joinConf.set("columnSeparator", columnSeparator);
+		joinConf.set("joinTable", join.table);
+		joinConf.setLong("joinMemory", joinMemory);
+		
+		//The reducers keep the rows of the smaller side for each key and stream the other side
+		joinConf.setBoolean("bufferMainTable", hdfs.getContentSummary(mainInputPath).getLength() < hdfs.getContentSummary(joinTableDir).getLength());
+		physicalPlan.writeTo(joinConf);
+		
+		Job joinJob = Job.getInstance(joinConf, "SqlEngine-Join-" + join.table);
+		joinJob.setJarByClass(SqlEngine.class);
+		joinJob.setMapOutputKeyClass(JoinKey.class);
+		joinJob.setMapOutputValueClass(Text.class);
+		joinJob.setOutputKeyClass(Text.class);
+		joinJob.setOutputValueClass(NullWritable.class);
+		joinJob.setPartitionerClass(JoinKey.JoinPartitioner.class);
+		joinJob.setGroupingComparatorClass(JoinKey.GroupingComparator.class);
+		joinJob.setReducerClass(RepartitionJoinReducer.class);
+		MultipleInputs.addInputPath(joinJob, mainInputPath, TextInputFormat.class, RepartitionJoinMapper.MainTableMapper.class);
+		MultipleInputs.addInputPath(joinJob, joinTableDir, TextInputFormat.class, RepartitionJoinMapper.JoinTableMapper.class);
+		FileOutputFormat.setOutputPath(joinJob, outputPath);
+		
+		if(!runJob(joinJob)) {
+			throw new RuntimeException("Join with table: " + join.table + " failed");
+		}
+	}
+	
+	/**
+	 * Run a job and keep it with its wall time in milliseconds, shown by EXPLAIN ANALYZE
+	 */
+	private boolean runJob(Job job) throws Exception {
+		long start = System.currentTimeMillis();
+		boolean success = job.waitForCompletion(true);
+		executedJobs.put(job.getJobName(), job);
+		jobTimes.put(job.getJobName(), System.currentTimeMillis() - start);
+		return success;
+	}
+	
+	/**
+	 * Decide how the query is executed: join strategy of each table, use of Bloom filters, reducers of the main job
+	 * and of the sorting job, and whether the main job sorts its output.
+	 * Used by executeQuery() and explain(), so EXPLAIN shows the plan that runs
+	 * @param mainConf configuration of the main job, with its default number of reducers
+	 */
+	private PhysicalPlan planQuery(String sql, Configuration mainConf) throws IOException {
+		SqlParser sqlParser = new SqlParser(sql, true);
+		SchemaCatalog catalog = SchemaCatalog.load(hdfs, inputPath, QueryPlan.getTables(sqlParser));
+		PhysicalPlan physicalPlan = new PhysicalPlan(sqlParser, catalog);
+		
+		//Joins: tables bigger than the broadcast threshold do not fit in mapper memory and are joined in a previous reduce-side job
+		List<String> repartitionTables = new ArrayList<String>();
+		boolean broadcastJoins = false;
+		for (SqlParser.Join join : sqlParser.joins) {
+			Path joinTableDir = new Path(inputPath.toString() + "/" + join.table + "/");
+			if(!hdfs.exists(joinTableDir)) {
+				throw new RuntimeException("Table: " + join.table + " does not exist in: " + joinTableDir.toString());
+			}
+			if(hdfs.getContentSummary(joinTableDir).getLength() > broadcastThreshold) {
+				repartitionTables.add(join.table);
+			} else {
+				broadcastJoins = true;
+			}
+		}
+		physicalPlan.setRepartitionTables(repartitionTables);
+		
+		//Bloom filters are checked over the raw bytes of the rows, which needs a separator that can be found in them
+		physicalPlan.setBloomFilters(broadcastJoins && RowView.isLiteralSeparator(columnSeparator));
+		
+		//Order by without grouping: solved by the shuffle of the main job when it needs one reducer,
+		//because ranges of keys need a sample of the results. With LIMIT each mapper keeps its first N rows
+		int mainReducers = new JobConf(mainConf).getNumReduceTasks();
+		int numSortReducers = sortReducers > 0 ? sortReducers : mainReducers;
+		boolean sort = sqlParser.sortClauses.size() > 0 || sqlParser.limit >= 0;
+		boolean aggregate = sqlParser.requireGrouping || sqlParser.distinct;
+		boolean sortedOutput = !aggregate && sort && (sqlParser.limit >= 0 || numSortReducers == 1);
+		physicalPlan.setSortedOutput(sortedOutput);
+		
+		//Nothing to aggregate or sort in the main job: the mappers write the rows with the same format as the reducers
+		if(sortedOutput) {
+			mainReducers = 1;
+		} else if(!aggregate) {
+			mainReducers = 0;
+		}
+		physicalPlan.setMainReducers(mainReducers);
+		
+		//Sorting job, also used by LIMIT to keep N rows from all the reducers. Limit uses a single reducer
+		if(sort && !sortedOutput) {
+			physicalPlan.setSortReducers(sqlParser.limit >= 0 ? 1 : numSortReducers);
+		}
+		return physicalPlan;
+	}
+	
+	/**
+	 * Join of the specified table
+	 */
+	private SqlParser.Join getJoin(SqlParser sqlParser, String table) {
+		for (SqlParser.Join join : sqlParser.joins) {
+			if(join.table.equals(table))
+				return join;
+		}
+		throw new RuntimeException("Invalid join table: " + table);
+	}
+	
+	/**
+	 * Split points of the sort keys that divide the rows of a dir in ranges of about the same size.
+	 * Runs of consecutive lines are read at evenly spaced positions of each file, instead of reading all the rows.
+	 * Repeated split points are removed, so there may be less ranges than reducers.
+	 */
+	private List<SortKey> sampleSplitPoints(Path dir, SortRows sortRows, int numReducers) throws IOException {
+		FileStatus[] files = hdfs.listStatus(dir, Utils.VISIBLE_FILES);
+		long totalLength = 0;
+		for (FileStatus file : files) {
+			totalLength += file.getLen();
+		}
+		
+		//Sample keys from each file, in proportion to its size
+		List<SortKey> samples = new ArrayList<SortKey>();
+		Text line = new Text();
+		for (FileStatus file : files) {
+			if(file.getLen() == 0)
+				continue;
+			int runs = (int)Math.max(1, (double)SORT_SAMPLES / SORT_SAMPLE_LINES * file.getLen() / totalLength);
+			FSDataInputStream in = hdfs.open(file.getPath());
+			try {
+				for (int i = 0; i < runs; i++) {
+					long position = file.getLen() * i / runs;
+					in.seek(position);
+					LineReader reader = new LineReader(in);
+					
+					//Skip the rest of the line where the position falls
+					if(position > 0) {
+						reader.readLine(line);
+					}
+					for (int j = 0; j < SORT_SAMPLE_LINES && reader.readLine(line) > 0; j++) {
+						SortKey sample = new SortKey();
+						sample.set(sortRows.getKey(line));
+						samples.add(sample);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		}
+		
+		//Evenly spaced keys of the sorted samples
+		Collections.sort(samples);
+		List<SortKey> splitPoints = new ArrayList<SortKey>();
+		for (int i = 1; i < numReducers && !samples.isEmpty(); i++) {
+			SortKey splitPoint = samples.get((int)((long)samples.size() * i / numReducers));
+			if(splitPoints.isEmpty() || splitPoint.compareTo(splitPoints.get(splitPoints.size() - 1)) > 0) {
+				splitPoints.add(splitPoint);
+			}
+		}
+		return splitPoints;
+	}
+	
+	/**
+	 * Description of everything used to build the hash table and Bloom filter of a join, besides the table files
+	 */
+	private String getJoinTableVariant(QueryPlan plan, SqlParser.Join join) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(CachedTable.VERSION);
+		sb.append("|").append(columnSeparator);
+		for (SqlParser.JoinClause joinClause : join.joinClauses) {
+			sb.append("|").append(joinClause.foreignColumn.column);
+		}
+		sb.append("|").append(Arrays.toString(plan.getReferencedColumns(join.table)));
+		sb.append("|").append(plan.getCatalog().getSchema(join.table));
+		for (WhereClause filter : plan.getTableFilters(join.table)) {
+			sb.append("|").append(filter);
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Build the hash table file read by the mappers and a Bloom filter with its join keys.
+	 * Only the rows that satisfy the WHERE filters of the table are included.
+	 */
+	private void buildJoinTable(QueryPlan plan, SqlParser.Join join, Path joinTableDir, BroadcastCache broadcastCache, Path tableFile, Path filterFile) throws IOException {
+		int[] joinColumns = new int[join.joinClauses.size()];
+		for (int i = 0; i < joinColumns.length; i++) {
+			joinColumns[i] = join.joinClauses.get(i).foreignColumn.column;
+		}
+		CachedTableBuilder builder = new CachedTableBuilder(join.table, columnSeparator, joinColumns, plan.getReferencedColumns(join.table), plan.getTableFilters(join.table), plan.getCatalog());
+		builder.load(hdfs, joinTableDir);
+		
+		Path tmpFile = broadcastCache.getTempPath(tableFile);
+		FSDataOutputStream out = hdfs.create(tmpFile, true);
+		try {
+			builder.write(out);
+		} finally {
+			out.close();
+		}
+		broadcastCache.publish(tmpFile, tableFile);
+		
+		tmpFile = broadcastCache.getTempPath(filterFile);
+		out = hdfs.create(tmpFile, true);
+		try {
+			builder.buildJoinFilter(BLOOM_FILTER_FALSE_POSITIVE_RATE).write(out);
+		} finally {
+			out.close();
+		}
+		broadcastCache.publish(tmpFile, filterFile);
+	}
+	
 	/**
 	 * Load results in memory and returns array of records.
 	 * Must be executed after executeQuery().
@@ -257,6 +782,77 @@ public class SqlEngine {
 		this.outputPath = outputPath;
 	}
 
+	public Path getCacheDir() {
+		return cacheDir;
+	}
+
+	/**
+	 * Dir where files shipped to the mappers are kept between queries
+	 */
+	public void setCacheDir(Path cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	public long getBroadcastThreshold() {
+		return broadcastThreshold;
+	}
+
+	/**
+	 * Max size in bytes of a table to be joined in memory by the mappers.
+	 * Bigger tables are joined with a reduce-side join.
+	 */
+	public void setBroadcastThreshold(long broadcastThreshold) {
+		this.broadcastThreshold = broadcastThreshold;
+	}
+
+	public long getAggregationMemory() {
+		return aggregationMemory;
+	}
+
+	/**
+	 * Approximate bytes used by each mapper to aggregate groups in memory.
+	 * Groups are sent to the reducers when it is reached. Zero disables in-mapper aggregation.
+	 */
+	public void setAggregationMemory(long aggregationMemory) {
+		this.aggregationMemory = aggregationMemory;
+	}
+
+	public int getSortReducers() {
+		return sortReducers;
+	}
+
+	/**
+	 * Number of reducers of the ORDER BY job. Each one writes a sorted range of the results.
+	 * Zero uses the same number as the main job.
+	 */
+	public void setSortReducers(int sortReducers) {
+		this.sortReducers = sortReducers;
+	}
+
+	public long getSortMemory() {
+		return sortMemory;
+	}
+
+	/**
+	 * Approximate bytes used by each task to keep the first N rows of ORDER BY ... LIMIT N.
+	 * When it is reached the rows are sorted by the shuffle, which spills sorted runs to disk and merges them.
+	 */
+	public void setSortMemory(long sortMemory) {
+		this.sortMemory = sortMemory;
+	}
+
+	public long getJoinMemory() {
+		return joinMemory;
+	}
+
+	/**
+	 * Approximate bytes used by each reducer of a reduce-side join to keep the rows of the smaller side with the same key.
+	 * Rows beyond it are spilled to a local file.
+	 */
+	public void setJoinMemory(long joinMemory) {
+		this.joinMemory = joinMemory;
+	}
+
 	public String getColumnSeparator() {
 		return columnSeparator;
 	}
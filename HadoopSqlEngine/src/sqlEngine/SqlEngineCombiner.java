@@ -0,0 +1,29 @@
+package sqlEngine;
+
+import java.io.IOException;
+
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Combiner used in queries with aggregate functions or DISTINCT.
+ * Merges the partial states of each group, so the shuffle moves one value per group instead of one per row.
+ * DISTINCT rows have no states, so each row is sent once.
+ * 
+ * @author Matias Leone
+ */
+public class SqlEngineCombiner extends Reducer<RowWritable, PartialAggregates, RowWritable, PartialAggregates> {
+
+	private PartialAggregates aggregates;
+	
+	public void setup(Context context) throws IOException, InterruptedException {
+		aggregates = PartialAggregates.forQuery(PhysicalPlan.fromConfiguration(context.getConfiguration()).getSql());
+	}
+	
+	public void reduce(RowWritable key, Iterable<PartialAggregates> values, Context context) throws IOException, InterruptedException {
+		aggregates.reset();
+		for (PartialAggregates partial : values) {
+			aggregates.merge(partial);
+		}
+		context.write(key, aggregates);
+	}
+}
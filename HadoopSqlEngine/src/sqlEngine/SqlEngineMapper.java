@@ -1,235 +1,479 @@
 package sqlEngine;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
-import sqlEngine.SqlParser.ConditionalOperator;
 import sqlEngine.SqlParser.Join;
 import sqlEngine.SqlParser.JoinClause;
 import sqlEngine.SqlParser.SelectColumn;
 import sqlEngine.SqlParser.SelectColumnType;
-import sqlEngine.SqlParser.WhereClause;
-import sqlEngine.SqlParser.WhereCompoundClause;
-import sqlEngine.SqlParser.WhereSimpleClause;
 
 /**
  * Sql engine Mapper
  * 
  * @author Matias Leone
  */
-public class SqlEngineMapper extends Mapper<Object, Text, Text, Text> {
+public class SqlEngineMapper extends Mapper<Object, Text, RowWritable, PartialAggregates> {
 
-	private final Text keyWritable = new Text();
-	private final Text valueWritable = new Text();
-	private List<CachedTable> tables;
+	/**
+	 * Counters of the rows removed by each operator, in SqlEngine.COUNTERS_GROUP
+	 */
+	public final static String COUNTER_BLOOM_SKIPPED = "Rows skipped by Bloom filters";
+	public final static String COUNTER_MAIN_FILTERED = "Rows filtered before joins";
+	public final static String COUNTER_JOIN_MISSES = "Rows without join match";
+	public final static String COUNTER_JOINED = "Rows after joins";
+	public final static String COUNTER_RESIDUAL_FILTERED = "Rows filtered after joins";
+	public final static String COUNTER_DISTINCT_SKIPPED = "Repeated distinct rows skipped";
+	public final static String COUNTER_FLUSHES = "Partial aggregation flushes";
+	
+	private RowWritable keyRow = new RowWritable();
+	private SortedRowWritable sortedRow;
+	private SortKeyEncoder sortKeyEncoder;
+	private TopRows topRows;
+	private long sortMemory;
+	private final DataOutputBuffer rowBuffer = new DataOutputBuffer();
+	private final Text rowBytes = new Text();
+	private PartialAggregates aggregates;
+	private DataType[] aggregateTypes;
+	private GroupHashTable groupTable;
+	private RecentKeysCache distinctKeys;
+	private List<Join> broadcastJoins;
+	private List<CachedTable> broadcastTables;
+	private List<JoinBloomFilter> broadcastFilters;
+	private RowView rowView;
+	private RowView[] repartitionViews;
+	private int mainColumnsLimit;
+	private int[] repartitionColumnsLimits;
+	private Row[] joinedRows;
+	private int[] repartitionSlots;
+	private int[] broadcastSlots;
+	private int[] matchedRows;
+	private int[] selectSlots;
+	private DataType[] selectTypes;
+	private byte[][] constants;
+	private byte[] keyBuffer = new byte[64];
+	private byte[] keyBytes;
+	private int keyOffset;
+	private int keyLength;
+	private String[] repartitionTables;
 	private SqlParser sql;
+	private WherePredicate mainTableFilter;
+	private WherePredicate residualFilter;
 	private String columnSeparator;
+	private long bloomSkipped;
+	private long mainFiltered;
+	private long joinMisses;
+	private long joined;
+	private long residualFiltered;
+	private long distinctSkipped;
 	
     public void setup(Context context) throws IOException, InterruptedException {
-    	//Parse sql
-    	sql = new SqlParser(context.getConfiguration().get("sql"), false);
+    	//Query planned by the driver
+    	PhysicalPlan physicalPlan = PhysicalPlan.fromConfiguration(context.getConfiguration());
+    	sql = physicalPlan.getSql();
+    	QueryPlan plan = physicalPlan.getQueryPlan();
     	columnSeparator = context.getConfiguration().get("columnSeparator");
     	
-    	//Load tables in memory
+    	//Tables already joined with a reduce-side join, their rows come appended to the main row
+    	repartitionTables = physicalPlan.getRepartitionTables();
+    	
+    	//Open the hash tables and Bloom filters built by the driver. They only have rows that satisfy their own WHERE filters
     	FileSystem hdfs = FileSystem.get(context.getConfiguration());
-    	tables = new ArrayList<CachedTable>();
+    	Map<String, CachedTable> tables = new HashMap<String, CachedTable>();
+    	Map<String, JoinBloomFilter> filters = new HashMap<String, JoinBloomFilter>();
     	if(context.getCacheFiles() != null) {
     		for (URI uri : context.getCacheFiles()) {
-        		tables.add(new CachedTable(hdfs, new Path(uri), columnSeparator));
+    			Path path = new Path(uri);
+    			if(path.getName().endsWith(SqlEngine.BLOOM_FILTER_EXTENSION)) {
+    				filters.put(CachedTable.getTableName(path), loadJoinFilter(hdfs, path));
+    			} else if(path.getName().endsWith(CachedTable.FILE_EXTENSION)) {
+    				tables.put(CachedTable.getTableName(path), CachedTable.open(hdfs, path));
+    			}
         	}
     	}
     	
+    	//Joins solved in memory
+    	broadcastJoins = new ArrayList<Join>();
+    	broadcastTables = new ArrayList<CachedTable>();
+    	broadcastFilters = new ArrayList<JoinBloomFilter>();
+    	for (Join join : sql.joins) {
+    		if(physicalPlan.isRepartitionTable(join.table))
+    			continue;
+    		if(!tables.containsKey(join.table)) {
+    			throw new RuntimeException("Invalid table name: " + join.table);
+    		}
+    		broadcastJoins.add(join);
+    		broadcastTables.add(tables.get(join.table));
+    		broadcastFilters.add(filters.get(join.table));
+		}
+    	
+    	//Each table has a fixed slot in the joined rows, the main table is the first one
+    	List<String> queryTables = QueryPlan.getTables(sql);
+    	joinedRows = new Row[queryTables.size()];
+    	repartitionSlots = new int[repartitionTables.length];
+    	for (int i = 0; i < repartitionTables.length; i++) {
+    		repartitionSlots[i] = queryTables.indexOf(repartitionTables[i]);
+		}
+    	broadcastSlots = new int[broadcastJoins.size()];
+    	matchedRows = new int[broadcastJoins.size()];
+    	for (int i = 0; i < broadcastSlots.length; i++) {
+    		broadcastSlots[i] = queryTables.indexOf(broadcastJoins.get(i).table);
+		}
+    	selectSlots = new int[sql.selectColumns.size()];
+    	for (int i = 0; i < selectSlots.length; i++) {
+    		SelectColumn selectColumn = sql.selectColumns.get(i);
+    		selectSlots[i] = selectColumn.column != null ? queryTables.indexOf(selectColumn.column.table) : -1;
+		}
+    	
+    	//Compile WHERE filters. Filters of join tables were applied before the join
+    	mainTableFilter = WherePredicate.compile(plan.getTableFilters(sql.mainTable), queryTables, plan.getCatalog());
+    	residualFilter = WherePredicate.compile(plan.getResidualFilters(), queryTables, plan.getCatalog());
+    	
+    	//Rows are read from the raw bytes of the line when the separator allows it. The view only
+    	//tokenizes up to the last column requested, otherwise only the columns used by the query are parsed
+    	mainColumnsLimit = plan.getColumnsLimit(sql.mainTable);
+    	repartitionColumnsLimits = new int[repartitionTables.length];
+    	for (int i = 0; i < repartitionTables.length; i++) {
+    		repartitionColumnsLimits[i] = plan.getColumnsLimit(repartitionTables[i]);
+		}
+    	if(RowView.isLiteralSeparator(columnSeparator)) {
+    		rowView = new RowView(columnSeparator);
+    		repartitionViews = new RowView[repartitionTables.length];
+    		for (int i = 0; i < repartitionViews.length; i++) {
+    			repartitionViews[i] = new RowView(columnSeparator);
+			}
+    	}
+    	
+    	//Output bytes: key columns are stored with the type of the column
+    	selectTypes = plan.getSelectTypes();
+    	constants = new byte[sql.selectColumns.size()][];
+    	for (int i = 0; i < constants.length; i++) {
+    		SelectColumn selectColumn = sql.selectColumns.get(i);
+    		if(selectColumn.type == SelectColumnType.CONSTANT) {
+    			constants[i] = selectColumn.constant.getBytes("UTF-8");
+    		}
+		}
+    	
+    	//Order by solved by the shuffle of this job: the key starts with the sort key of the row
+    	if(physicalPlan.isSortedOutput()) {
+    		sortedRow = new SortedRowWritable();
+    		keyRow = sortedRow;
+    		sortKeyEncoder = new SortKeyEncoder(sql, selectTypes);
+    		
+    		//Limit: each mapper only sends its first N rows
+    		if(sql.limit >= 0) {
+    			topRows = new TopRows(sql.limit);
+    			sortMemory = context.getConfiguration().getLong("sortMemory", SqlEngine.DEFAULT_SORT_MEMORY);
+    		}
+    	}
+    	
+    	//Aggregate functions: each row is sent as partial states, merged later by the combiner and the reducer
+    	List<DataType> types = new ArrayList<DataType>();
+    	for (SelectColumn selectColumn : sql.selectColumns) {
+    		if(selectColumn.type == SelectColumnType.AGGREGATE) {
+    			types.add(plan.getCatalog().getType(selectColumn.column.table, selectColumn.column.column));
+    		}
+		}
+    	aggregates = PartialAggregates.forQuery(sql);
+    	aggregateTypes = types.toArray(new DataType[types.size()]);
+    	
+    	//Grouping: rows of the same group are aggregated in memory and sent once per group
+    	long aggregationMemory = context.getConfiguration().getLong("aggregationMemory", SqlEngine.DEFAULT_AGGREGATION_MEMORY);
+    	if(sql.requireGrouping && aggregationMemory > 0) {
+    		groupTable = new GroupHashTable(sql, aggregationMemory);
+    	}
+    	
+    	//Distinct: rows emitted recently are not sent again
+    	if(sql.distinct && !sql.requireGrouping && aggregationMemory > 0) {
+    		distinctKeys = new RecentKeysCache(aggregationMemory);
+    	}
+    	
     	super.setup(context);
     }
     
     public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
-    	//Current row of the main table
-    	Record currentRow = new Record(value.toString(), columnSeparator);
+    	Row currentRow;
     	
-    	//Joins: search in cached tables and merge records into one
-    	Map<String, Record> joinedRows = new HashMap<String, Record>();
-    	joinedRows.put(sql.mainTable, currentRow);
-    	for (Join join : sql.joins) {
-    		CachedTable joinTable = getTable(join.table);
-    		for (JoinClause joinClause : join.joinClauses) {
-    			String currentRowValue = currentRow.getValue(joinClause.localColumn);
-    			Record joinRow = joinTable.searchByColumn(joinClause.foreignColumn.column, currentRowValue);
-    			
-    			//Join not satisfied, abort and skip the current row
-    			if(joinRow == null) {
+    	//Rows read in place from the bytes of the line: main row followed by the rows of the reduce-side joins
+    	if(rowView != null) {
+    		byte[] bytes = value.getBytes();
+    		int length = value.getLength();
+    		rowView.set(bytes, 0, length);
+    		currentRow = rowView;
+    		int offset = RowView.findTableSeparator(bytes, 0, length);
+    		for (int i = 0; i < repartitionTables.length; i++) {
+    			repartitionViews[i].set(bytes, offset + 1, length);
+    			joinedRows[repartitionSlots[i]] = repartitionViews[i];
+    			offset = RowView.findTableSeparator(bytes, offset + 1, length);
+			}
+    		
+    		//Semi-join: skip rows whose join keys are not in the join tables
+    		for (int i = 0; i < broadcastJoins.size(); i++) {
+    			JoinBloomFilter filter = broadcastFilters.get(i);
+    			if(filter != null && extractJoinKey(broadcastJoins.get(i), null) && !filter.mightContain(keyBytes, keyOffset, keyLength)) {
+    				bloomSkipped++;
     				return;
     			}
-    			joinedRows.put(join.table, joinRow);
 			}
-		}
-    	
+    		
+    	//Separator that cannot be found in raw bytes: parse the line with Record
+    	} else {
+    		String[] tableRows = value.toString().split(SqlEngine.TABLE_SEPARATOR);
+    		currentRow = new Record(tableRows[0], columnSeparator, mainColumnsLimit);
+    		for (int i = 0; i < repartitionTables.length; i++) {
+				joinedRows[repartitionSlots[i]] = new Record(tableRows[i + 1], columnSeparator, repartitionColumnsLimits[i]);
+			}
+    	}
+    	joinedRows[0] = currentRow;
     	
+    	//Where: filters that only use the main table are applied before any join
+    	if(!mainTableFilter.evaluate(joinedRows)) {
+    		mainFiltered++;
+    		return;
+    	}
     	
-    	//Where: apply filters
-    	if(sql.whereClause != null) {
-
-    		//Apply nested filters recursively
-    		boolean result = applyWhereClauseRecursive(joinedRows, sql.whereClause);
+    	//Joins: search the first row with the join key in each cached table
+    	for (int i = 0; i < broadcastJoins.size(); i++) {
+    		Join join = broadcastJoins.get(i);
+    		int row = -1;
+    		if(extractJoinKey(join, currentRow)) {
+    			row = broadcastTables.get(i).searchByKey(keyBytes, keyOffset, keyLength);
+    		}
     		
-    		//Skip current line if the filters were not satisfied
-    		if(!result) {
+    		//Join not satisfied, abort and skip the current row
+    		if(row == -1) {
+    			joinMisses++;
     			return;
     		}
+    		matchedRows[i] = row;
+		}
+    	
+    	//Merge the row with every combination of the matched rows, like reduce-side joins do
+    	joinBroadcastRows(0, context);
+    }
+    
+    /**
+     * Combine the current rows with all the rows of the cached table with the same join key,
+     * and continue with the next join. When all joins are solved the joined row is sent
+     */
+    private void joinBroadcastRows(int joinIndex, Context context) throws IOException, InterruptedException {
+    	if(joinIndex == broadcastJoins.size()) {
+    		writeJoinedRow(context);
+    		return;
+    	}
+    	CachedTable table = broadcastTables.get(joinIndex);
+    	for (int row = matchedRows[joinIndex]; row != -1; row = table.nextRow(row)) {
+    		joinedRows[broadcastSlots[joinIndex]] = table.getRow(row);
+    		joinBroadcastRows(joinIndex + 1, context);
+		}
+    }
+    
+    /**
+     * Filter, select and send the current joined rows
+     */
+    private void writeJoinedRow(Context context) throws IOException, InterruptedException {
+    	joined++;
+    	
+    	//Where: apply filters that use many tables. Filters of join tables were applied when they were loaded
+    	if(!residualFilter.evaluate(joinedRows)) {
+    		residualFiltered++;
+    		return;
     	}
     	
     	
     	//Select: leave only the columns that we want to see. Put them in reducer key
-    	List<String> keyColumns = new ArrayList<String>();
-    	for (SelectColumn selectColumn : sql.selectColumns) {
+    	keyRow.clear();
+    	for (int i = 0; i < sql.selectColumns.size(); i++) {
+    		SelectColumn selectColumn = sql.selectColumns.get(i);
 			//Constant: just add the value
 			if(selectColumn.type == SelectColumnType.CONSTANT) {
-				keyColumns.add(selectColumn.constant);
+				keyRow.addString(constants[i], 0, constants[i].length);
 				
 			//Regular column: add column value
 			} else if(selectColumn.type == SelectColumnType.COLUMN) {
-				String colValue = joinedRows.get(selectColumn.column.table).getValue(selectColumn.column.column);
-				keyColumns.add(colValue);
+				keyRow.add(joinedRows[selectSlots[i]], selectColumn.column.column, selectTypes[i]);
 			}
 		}
     	
-    	//Aggregation columns: put them in reducer value
-    	List<String> valueColumns = new ArrayList<String>();
-    	for (SelectColumn selectColumn : sql.selectColumns) {
-    		if(selectColumn.type == SelectColumnType.AGGREGATE) {
-    			String colValue = joinedRows.get(selectColumn.column.table).getValue(selectColumn.column.column);
-    			valueColumns.add(colValue);
+    	//Aggregation columns: add the values of this row to the states of its group, sent later
+    	if(groupTable != null) {
+    		PartialAggregates states = groupTable.getGroup(keyRow, context);
+    		long memorySize = states.getMemorySize();
+    		addAggregates(states);
+    		groupTable.updateMemory(states.getMemorySize() - memorySize);
+    		return;
+    	}
+    	
+    	//Distinct: skip rows already sent by this mapper
+    	if(distinctKeys != null && !distinctKeys.add(keyRow)) {
+    		distinctSkipped++;
+    		return;
+    	}
+    	
+    	//Order by: sort key computed from the selected columns
+    	if(sortKeyEncoder != null) {
+    		sortKeyEncoder.encode(keyRow, sortedRow.getSortKey());
+    		
+    		//Limit: keep the row if it is one of the first N, they are sent in cleanup
+    		if(topRows != null) {
+    			if(topRows.accepts(sortedRow.getSortKey())) {
+    				rowBuffer.reset();
+    				sortedRow.write(rowBuffer);
+    				rowBytes.set(rowBuffer.getData(), 0, rowBuffer.getLength());
+    				topRows.add(sortedRow.getSortKey(), rowBytes);
+    				
+    				//Too many rows for memory: send all of them, the reducer keeps the first N
+    				if(topRows.getMemorySize() > sortMemory) {
+    					writeTopRows(context);
+    				}
+    			}
+    			return;
     		}
     	}
     	
+    	//Output columns in key and aggregate states in value
+    	aggregates.reset();
+    	addAggregates(aggregates);
+    	context.write(keyRow, aggregates);
+    }
+    
+    public void cleanup(Context context) throws IOException, InterruptedException {
+    	//Send the groups still in memory
+    	if(groupTable != null) {
+    		groupTable.flush(context);
+    		context.getCounter(SqlEngine.COUNTERS_GROUP, COUNTER_FLUSHES).increment(groupTable.getFlushes());
+    	}
+    	
+    	//Send the first N rows
+    	if(topRows != null) {
+    		writeTopRows(context);
+    	}
     	
-    	//Output concatenated columns in key and value
-    	keyWritable.set(Utils.getColumsOutput(keyColumns, columnSeparator));
-    	valueWritable.set(Utils.getColumsOutput(valueColumns, columnSeparator));
-    	context.write(keyWritable, valueWritable);
+    	//Rows removed by each operator, shown by EXPLAIN ANALYZE
+    	context.getCounter(SqlEngine.COUNTERS_GROUP, COUNTER_BLOOM_SKIPPED).increment(bloomSkipped);
+    	context.getCounter(SqlEngine.COUNTERS_GROUP, COUNTER_MAIN_FILTERED).increment(mainFiltered);
+    	context.getCounter(SqlEngine.COUNTERS_GROUP, COUNTER_JOIN_MISSES).increment(joinMisses);
+    	context.getCounter(SqlEngine.COUNTERS_GROUP, COUNTER_JOINED).increment(joined);
+    	context.getCounter(SqlEngine.COUNTERS_GROUP, COUNTER_RESIDUAL_FILTERED).increment(residualFiltered);
+    	context.getCounter(SqlEngine.COUNTERS_GROUP, COUNTER_DISTINCT_SKIPPED).increment(distinctSkipped);
+    	super.cleanup(context);
+    }
+    
+    /**
+     * Send the rows kept for LIMIT and stop keeping them. Each one holds the serialized SortedRowWritable
+     */
+    private void writeTopRows(Context context) throws IOException, InterruptedException {
+    	DataInputBuffer in = new DataInputBuffer();
+    	aggregates.reset();
+    	for (TopRows.Entry entry : topRows.getSorted()) {
+    		in.reset(entry.row.getBytes(), entry.row.getLength());
+    		sortedRow.readFields(in);
+    		context.write(sortedRow, aggregates);
+		}
+    	topRows = null;
+    }
+    
+    /**
+     * Add the aggregate columns of the current joined rows to the states
+     */
+    private void addAggregates(PartialAggregates states) {
+    	int aggIndex = 0;
+    	for (int i = 0; i < sql.selectColumns.size(); i++) {
+    		SelectColumn selectColumn = sql.selectColumns.get(i);
+    		if(selectColumn.type == SelectColumnType.AGGREGATE) {
+    			states.get(aggIndex).add(joinedRows[selectSlots[i]], selectColumn.column.column, aggregateTypes[aggIndex]);
+    			aggIndex++;
+    		}
+		}
     }
     
     /**
-     * Apply WHERE filters recursively to joined rows
+     * Locate the join key of the current row, with the same bytes created by Utils.getJoinKey() in UTF-8.
+     * The key is left in keyBytes, keyOffset and keyLength. Simple keys point directly to the row bytes
+     * and composite keys are copied to keyBuffer.
+     * @param currentRow parsed row, only used when the raw bytes of the row cannot be read
+     * @return false if the row does not have the join columns
      */
-    private boolean applyWhereClauseRecursive(Map<String, Record> joinedRows, WhereClause clause) {
+    private boolean extractJoinKey(Join join, Row currentRow) throws IOException {
+    	List<JoinClause> clauses = join.joinClauses;
     	
-    	//Compound expression
-    	if(clause instanceof WhereCompoundClause) {
-    		WhereCompoundClause compClause = (WhereCompoundClause)clause;
-    		
-    		//Apply left clause first
-    		boolean leftResult = applyWhereClauseRecursive(joinedRows, compClause.leftClause);
-    		//Early abort if using an AND operator
-    		if(!leftResult && compClause.operator == ConditionalOperator.AND)
+    	//Separator that cannot be found in raw bytes: encode the parsed values
+    	if(rowView == null) {
+    		String[] joinValues = new String[clauses.size()];
+    		for (int i = 0; i < joinValues.length; i++) {
+    			joinValues[i] = currentRow.getValue(clauses.get(i).localColumn);
+			}
+    		keyBytes = Utils.getJoinKey(joinValues).getBytes("UTF-8");
+    		keyOffset = 0;
+    		keyLength = keyBytes.length;
+    		return true;
+    	}
+    	
+    	//Simple key: point to the column bytes in place
+    	if(clauses.size() == 1) {
+    		int col = clauses.get(0).localColumn;
+    		if(!rowView.hasColumn(col))
     			return false;
-    		
-    		//Apply right clause
-    		boolean rightResult = applyWhereClauseRecursive(joinedRows, compClause.rightClause);
-    		
-    		//Apply conditional operator
-    		boolean result;
-    		if(compClause.operator == ConditionalOperator.AND) {
-    			result = leftResult && rightResult;
-    		} else {
-    			result = leftResult || rightResult;
+    		keyBytes = rowView.getBytes();
+    		keyOffset = rowView.getStart(col);
+    		keyLength = rowView.getEnd(col) - keyOffset;
+    		return true;
+    	}
+    	
+    	//Composite key: copy all columns with a zero byte between them
+    	int length = 0;
+    	for (int i = 0; i < clauses.size(); i++) {
+    		int col = clauses.get(i).localColumn;
+    		if(!rowView.hasColumn(col))
+    			return false;
+    		int start = rowView.getStart(col);
+    		int colLength = rowView.getEnd(col) - start;
+    		if(length + colLength + 1 > keyBuffer.length) {
+    			keyBuffer = Arrays.copyOf(keyBuffer, (length + colLength + 1) * 2);
+    		}
+    		System.arraycopy(rowView.getBytes(), start, keyBuffer, length, colLength);
+    		length += colLength;
+    		if(i != clauses.size() - 1) {
+    			keyBuffer[length++] = 0;
     		}
-    		return result;
-    		
-		//Final expression
-		} else {
-			//Get value to compare
-			WhereSimpleClause simpleClause = (WhereSimpleClause)clause;
-    		String colValue = joinedRows.get(simpleClause.column.table).getValue(simpleClause.column.column);
-    		
-    		//Apply operator
-    		boolean result = false;
-    		switch (simpleClause.operator) {
-			case EQUALS:
-				result = colValue.toLowerCase().equals(simpleClause.value);
-				break;
-			case NOT_EQUALS:
-				result = !colValue.equals(simpleClause.value);
-				break;
-			case LIKE:
-				result = colValue.toLowerCase().contains(simpleClause.value);
-				break;
-			case GREATER:
-				result = colValue.compareTo(simpleClause.value) > 0;
-				break;
-			case GREATER_EQ:
-				result = colValue.compareTo(simpleClause.value) >= 0;
-				break;
-			case LOWER:
-				result = colValue.compareTo(simpleClause.value) < 0;
-				break;
-			case LOWER_EQ:
-				result = colValue.compareTo(simpleClause.value) <= 0;
-				break;
-			}
-    		
-    		return result;
 		}
+    	keyBytes = keyBuffer;
+    	keyOffset = 0;
+    	keyLength = length;
+    	return true;
     }
     
-    
-    
-    private CachedTable getTable(String tableName) {
-    	for (CachedTable t : tables) {
-			if(t.table.equals(tableName))
-				return t;
+    private JoinBloomFilter loadJoinFilter(FileSystem hdfs, Path path) {
+    	JoinBloomFilter filter = new JoinBloomFilter();
+    	try {
+    		FSDataInputStream in = hdfs.open(path);
+    		try {
+    			filter.readFields(in);
+    		} finally {
+    			in.close();
+    		}
+		} catch (IOException e) {
+			throw new RuntimeException("Error loading Bloom filter: " + path, e);
 		}
-    	throw new RuntimeException("Invalid table name: " + tableName);
+    	return filter;
     }
     
+    
+    
 
-	private class CachedTable {
-		public String table;
-		public List<Record> rows;
-		
-		public CachedTable(FileSystem hdfs, Path path, String sep) {
-			rows = new ArrayList<Record>();
-			table = path.getName();
-			table = table.substring(0, table.lastIndexOf('.'));
-			
-			BufferedReader reader = null;
-			try {
-				reader = new BufferedReader(new InputStreamReader(hdfs.open(path)));
-	    		String line;
-	    		while((line = reader.readLine()) != null) {
-	    			rows.add(new Record(line, sep));
-	    		}
-			} catch (IOException e) {
-				throw new RuntimeException("Error loading table in memory: " + path, e);
-			} finally {
-				try {
-					if(reader != null) {
-						reader.close();
-					}
-				} catch (IOException e) {
-				}
-			}
-		}
-	
-		public Record searchByColumn(int column, String value) {
-			for (Record row : rows) {
-				if(row.getValue(column).equals(value))
-					return row;
-			}
-			return null;
-		}
-	}
-	
 	
 	
 	
@@ -1,13 +1,11 @@
 package sqlEngine;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 
-import sqlEngine.SqlParser.AggregateFunction;
 import sqlEngine.SqlParser.SelectColumn;
 import sqlEngine.SqlParser.SelectColumnType;
 
@@ -16,111 +14,144 @@ import sqlEngine.SqlParser.SelectColumnType;
  * 
  * @author Matias Leone
  */
-public class SqlEngineReducer extends Reducer<Text, Text, Text, Text> {
+public class SqlEngineReducer extends Reducer<RowWritable, PartialAggregates, Text, NullWritable> {
 
-	private final static Text empty = new Text("");
 	private final Text outputWritable = new Text();
 	private SqlParser sql;
-	private String columnSeparator;
+	private byte[] separator;
+	private PartialAggregates aggregates;
+	private HavingPredicate having;
+	private SortRows sortRows;
+	private TopRows topRows;
+	private long sortMemory;
+	private long written;
 	
 	public void setup(Context context) throws IOException, InterruptedException {
-		//Parse sql
-    	sql = new SqlParser(context.getConfiguration().get("sql"), false);
-    	columnSeparator = context.getConfiguration().get("columnSeparator");
+		//Query planned by the driver
+    	PhysicalPlan plan = PhysicalPlan.fromConfiguration(context.getConfiguration());
+    	sql = plan.getSql();
+    	aggregates = PartialAggregates.forQuery(sql);
+    	having = HavingPredicate.compile(sql, plan.getQueryPlan().getSelectTypes());
+    	String columnSeparator = context.getConfiguration().get("columnSeparator");
+    	separator = columnSeparator.getBytes("UTF-8");
+    	
+    	//Order by with limit: only the first N rows of this reducer are written.
+    	//When the rows come sorted by the shuffle the first N rows are written as they come
+    	if(sql.limit >= 0 && sql.sortClauses.size() > 0 && !plan.isSortedOutput()) {
+    		sortRows = new SortRows(plan, columnSeparator);
+    		topRows = new TopRows(sql.limit);
+    		sortMemory = context.getConfiguration().getLong("sortMemory", SqlEngine.DEFAULT_SORT_MEMORY);
+    	}
 	}
 	
-	public void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+	public void reduce(RowWritable key, Iterable<PartialAggregates> values, Context context) throws IOException, InterruptedException {
 		
 		//Grouping: compute aggregate functions
 		if(sql.requireGrouping) {
 			
-			//Parse grouping columns from key
-			Record groupColumns = new Record(key.toString(), columnSeparator);
-			
-			//Init all aggregate values
-			int count = 0;
-			double sum = 0;
-			double max = Double.MIN_VALUE;
-			double min = Double.MAX_VALUE;
+			//Merge the partial states of each mapper or combiner
+			aggregates.reset();
+			for (PartialAggregates partial : values) {
+				aggregates.merge(partial);
+			}
 			
-			//Loop through each value that we have to aggregate
-			for (Text aggregateItem : values) {
-				Record aggregateColums = new Record(aggregateItem.toString(), columnSeparator);
-				
-				//Loop trough aggregate columns
-				int aggIndex = 0;
-				for (SelectColumn c : sql.selectColumns) {
-					if(c.type == SelectColumnType.AGGREGATE) {
-						
-						String colValue = aggregateColums.getValue(aggIndex);
-						
-						//Count
-						if(c.function == AggregateFunction.COUNT || c.function == AggregateFunction.AVG) {
-							count++;
-						}
-						
-						//Sum
-						if(c.function == AggregateFunction.SUM || c.function == AggregateFunction.AVG) {
-							double v = Double.parseDouble(colValue);
-							sum += v;
-						}
-						
-						//Max and Min
-						if(c.function == AggregateFunction.MAX || c.function == AggregateFunction.MIN) {
-							double v = Double.parseDouble(colValue);
-							if(v > max) max = v;
-							if(v < min) min = v;
-						}
-						
-						aggIndex++;
-					}
-				}
+			//Having: groups that do not satisfy it are not written
+			if(!having.evaluate(key, aggregates)) {
+				return;
 			}
 			
 			//Generate final list of columns
-			List<String> resultColumns = new ArrayList<String>(sql.selectColumns.size());
+			outputWritable.clear();
 			int groupColIndex = 0;
-			for (SelectColumn c : sql.selectColumns) {
+			int aggIndex = 0;
+			for (int i = 0; i < sql.selectColumns.size(); i++) {
+				SelectColumn c = sql.selectColumns.get(i);
+				if(i > 0) {
+					outputWritable.append(separator, 0, separator.length);
+				}
 				
 				//Add constant or column value
 				if(c.type == SelectColumnType.CONSTANT || c.type == SelectColumnType.COLUMN) {
-					resultColumns.add(groupColumns.getValue(groupColIndex));
+					key.appendTo(groupColIndex, outputWritable);
 					groupColIndex++;
 					
 				//Add aggregate calculation
 				} else if(c.type == SelectColumnType.AGGREGATE) {
-					switch (c.function) {
-					case COUNT:
-						resultColumns.add(String.valueOf(count));
-						break;
-					case SUM:
-						resultColumns.add(Utils.printDouble(sum));
-						break;
-					case MAX:
-						resultColumns.add(Utils.printDouble(max));
-						break;
-					case MIN:
-						resultColumns.add(Utils.printDouble(min));
-						break;
-					case AVG:
-						double avg = sum / (double)count;
-						resultColumns.add(Utils.printDouble(avg));
-						break;
-					}
+					append(outputWritable, aggregates.get(aggIndex).getResult());
+					aggIndex++;
 				}
 			}
-
-			outputWritable.set(Utils.getColumsOutput(resultColumns, columnSeparator));
 			
 			
 		//No grouping: the key contains all the columns we need to output
 		} else {
-			outputWritable.set(key);
+			//Without distinct equal rows are written once for each value. When the rows are sorted by the shuffle,
+			//rows with the same sort key come in the same call and the key is updated with each value
+			if(!sql.distinct) {
+				for (@SuppressWarnings("unused") PartialAggregates value : values) {
+					setOutputRow(key);
+					write(context);
+				}
+				return;
+			}
+			setOutputRow(key);
 		}
 		
 
-		//We output everything in the key, the value is empty
-		context.write(outputWritable, empty);
+		//We output everything in the key, without value the lines have no trailing separator
+		write(context);
+	}
+	
+	public void cleanup(Context context) throws IOException, InterruptedException {
+		//Order by with limit: write the first rows in order
+		if(topRows != null) {
+			writeTopRows(context);
+		}
+	}
+	
+	/**
+	 * Write the output row, or keep it if the query has order by and limit
+	 */
+	private void write(Context context) throws IOException, InterruptedException {
+		if(topRows != null) {
+			topRows.add(sortRows.getKey(outputWritable), outputWritable);
+			
+			//Too many rows for memory: write all of them, the sorting job keeps the first N
+			if(topRows.getMemorySize() > sortMemory) {
+				writeTopRows(context);
+			}
+		} else if(sortRows != null || sql.limit < 0 || written < sql.limit) {
+			context.write(outputWritable, NullWritable.get());
+			written++;
+		}
+	}
+	
+	/**
+	 * Write the kept rows and stop keeping them
+	 */
+	private void writeTopRows(Context context) throws IOException, InterruptedException {
+		for (TopRows.Entry entry : topRows.getSorted()) {
+			context.write(entry.row, NullWritable.get());
+		}
+		topRows = null;
+	}
+	
+	/**
+	 * Output row with all the columns of the key
+	 */
+	private void setOutputRow(RowWritable key) {
+		outputWritable.clear();
+		for (int i = 0; i < key.getColumnsCount(); i++) {
+			if(i > 0) {
+				outputWritable.append(separator, 0, separator.length);
+			}
+			key.appendTo(i, outputWritable);
+		}
+	}
+	
+	private void append(Text text, String value) throws IOException {
+		byte[] bytes = value.getBytes("UTF-8");
+		text.append(bytes, 0, bytes.length);
 	}
 	
 }
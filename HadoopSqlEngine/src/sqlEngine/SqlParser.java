@@ -1,10 +1,15 @@
 package sqlEngine;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.hadoop.io.WritableUtils;
+
 /**
  * Simple SQL parser
  * 
@@ -22,6 +27,14 @@ public class SqlParser {
 	public List<HavingColumn> havingColumns;
 	public List<SortClause> sortClauses;
 	public boolean requireGrouping;
+	/**
+	 * Max number of rows of LIMIT, -1 if there is no limit
+	 */
+	public int limit;
+	
+	private final static byte NO_CLAUSE = 0;
+	private final static byte SIMPLE_CLAUSE = 1;
+	private final static byte COMPOUND_CLAUSE = 2;
 	
 	
 	public static void main(String[] args) {
@@ -40,6 +53,12 @@ public class SqlParser {
 	}
 	
 	
+	/**
+	 * Query read with read()
+	 */
+	private SqlParser() {
+	}
+	
 	/**
 	 * Parse SQL sentence
 	 */
@@ -52,6 +71,14 @@ public class SqlParser {
 		//Parse
 		try {
 			
+			//Limit: always the last clause, removed before parsing the rest
+			limit = -1;
+			int limitIndex = sql.lastIndexOf(" limit ");
+			if(limitIndex >= 0 && sql.substring(limitIndex + " limit ".length()).trim().matches("\\d+")) {
+				limit = Integer.parseInt(sql.substring(limitIndex + " limit ".length()).trim());
+				sql = sql.substring(0, limitIndex);
+			}
+			
 			boolean hasWhere = sql.contains(" where");
 			boolean hasGroupBy = sql.contains(" group by");
 			boolean hasHaving = sql.contains(" having");
@@ -63,43 +90,17 @@ public class SqlParser {
 			String selectContent = extractTextWithin(sql, "select ", " from");
 			//Check if we have distinct
 			distinct = false;
-			if(selectContent.contains(" distinct ")) {
+			if(selectContent.startsWith("distinct ")) {
 				distinct = true;
-				selectContent = selectContent.substring(selectContent.indexOf(" distinct ") + " distinct ".length());
+				selectContent = selectContent.substring("distinct ".length()).trim();
 			}
 			//Loop through columns
 			requireGrouping = false;
-			String[] selectSplit = selectContent.split(",");
-			for (String col : selectSplit) {
-				SelectColumn selectColumn = new SelectColumn();
-				
-				//Check if it's a constant
-				if(col.trim().startsWith("'")) {
-					selectColumn.type = SelectColumnType.CONSTANT;
-					selectColumn.constant = col.substring(col.indexOf("'") + 1, col.lastIndexOf("'"));
-					
-				} else {
-					//Check if it's an aggregate function
-					AggregateFunction func = null;
-					for (AggregateFunction f : AggregateFunction.values()) {
-						if(col.trim().startsWith(f.name + "(")) {
-							func = f;
-							break;
-						}
-					}
-					if(func == null) {
-						//Regular table column
-						selectColumn.type = SelectColumnType.COLUMN;
-						selectColumn.column = new Column(col);
-					} else {
-						//Aggregate function
-						requireGrouping = true;
-						selectColumn.type = SelectColumnType.AGGREGATE;
-						selectColumn.function = func;
-						selectColumn.column = new Column(col.substring(col.indexOf("(") + 1, col.indexOf(")")));
-					}
+			for (String col : splitOutsideParenthesis(selectContent)) {
+				SelectColumn selectColumn = parseSelectColumn(col);
+				if(selectColumn.type == SelectColumnType.AGGREGATE) {
+					requireGrouping = true;
 				}
-				
 				selectColumns.add(selectColumn);
 			}
 			
@@ -212,7 +213,10 @@ public class SqlParser {
 				} else {
 					havingContent = extractLeftText(sql, "having ");
 				}
-				//TODO: complete HAVING parsing
+				//Terms joined with AND
+				for (String term : havingContent.split(" and ")) {
+					havingColumns.add(parseHavingColumn(term.trim()));
+				}
 			}
 			
 			//Order by
@@ -251,6 +255,60 @@ public class SqlParser {
 		
 	}
 	
+	/**
+	 * Parse one column of the SELECT: constant, table column or aggregate function
+	 */
+	private SelectColumn parseSelectColumn(String col) {
+		SelectColumn selectColumn = new SelectColumn();
+		
+		//Check if it's a constant
+		if(col.trim().startsWith("'")) {
+			selectColumn.type = SelectColumnType.CONSTANT;
+			selectColumn.constant = col.substring(col.indexOf("'") + 1, col.lastIndexOf("'"));
+			
+		} else {
+			//Check if it's an aggregate function
+			AggregateFunction func = null;
+			for (AggregateFunction f : AggregateFunction.values()) {
+				if(col.trim().startsWith(f.name + "(")) {
+					func = f;
+					break;
+				}
+			}
+			if(func == null) {
+				//Regular table column
+				selectColumn.type = SelectColumnType.COLUMN;
+				selectColumn.column = new Column(col);
+			} else {
+				//Aggregate function
+				selectColumn.type = SelectColumnType.AGGREGATE;
+				selectColumn.function = func;
+				String argument = col.substring(col.indexOf("(") + 1, col.indexOf(")")).trim();
+				//COUNT(DISTINCT col)
+				if(func == AggregateFunction.COUNT && argument.startsWith("distinct ")) {
+					selectColumn.function = AggregateFunction.COUNT_DISTINCT;
+					argument = argument.substring("distinct ".length());
+				}
+				//PERCENTILE_APPROX(col, p)
+				if(func == AggregateFunction.PERCENTILE_APPROX) {
+					int comma = argument.lastIndexOf(',');
+					if(comma < 0) {
+						throw new RuntimeException("Percentile not specified: " + col.trim());
+					}
+					selectColumn.percentile = Double.parseDouble(argument.substring(comma + 1).trim());
+					if(selectColumn.percentile < 0 || selectColumn.percentile > 1) {
+						throw new RuntimeException("Percentile must be between 0 and 1: " + col.trim());
+					}
+					argument = argument.substring(0, comma);
+				} else if(func == AggregateFunction.MEDIAN) {
+					selectColumn.percentile = 0.5;
+				}
+				selectColumn.column = new Column(argument);
+			}
+		}
+		return selectColumn;
+	}
+	
 	/**
 	 * Parse WHERE content recursive
 	 */
@@ -364,6 +422,48 @@ public class SqlParser {
 		return whereClause;
 	}
 	
+	/**
+	 * Parse one HAVING term: a SELECT column, or its index, compared with a value.
+	 * Example: COUNT(sale.0) > '10'
+	 */
+	private HavingColumn parseHavingColumn(String content) {
+		//Search operator
+		Operator operator = null;
+		for (Operator op : Operator.values()) {
+			if(content.contains(op.symbol)) {
+				operator = op;
+				break;
+			}
+		}
+		if(operator == null) {
+			throw new RuntimeException("Invalid operator in having clause: " + content);
+		}
+		HavingColumn havingColumn = new HavingColumn();
+		havingColumn.operator = operator;
+		String opLeft = content.substring(0, content.indexOf(operator.symbol)).trim();
+		havingColumn.value = content.substring(content.indexOf(operator.symbol) + operator.symbol.length()).trim().replace("'", "");
+		
+		//Index of a select column
+		if(opLeft.matches("\\d+")) {
+			havingColumn.index = Integer.parseInt(opLeft);
+			return havingColumn;
+		}
+		
+		//Same expression of a select column
+		String expression = parseSelectColumn(opLeft).toString();
+		havingColumn.index = -1;
+		for (int i = 0; i < selectColumns.size(); i++) {
+			if(selectColumns.get(i).toString().equals(expression)) {
+				havingColumn.index = i;
+				break;
+			}
+		}
+		if(havingColumn.index < 0) {
+			throw new RuntimeException("Having column must be in the select: " + opLeft);
+		}
+		return havingColumn;
+	}
+	
 	/**
 	 * Find next Conditional Operator in a string
 	 */
@@ -445,6 +545,16 @@ public class SqlParser {
 			}
 		}
 		
+		//Check that having is applied to groups and indices point to an existing select column
+		if(havingColumns.size() > 0 && !requireGrouping) {
+			throw new RuntimeException("Having requires aggregate functions in the select");
+		}
+		for (HavingColumn h : havingColumns) {
+			if(h.index < 0 || h.index >= selectColumns.size()) {
+				throw new RuntimeException("Invalid Having index: " + h.index);
+			}
+		}
+		
 		//Check that sorting indices point to an existing select column
 		for (SortClause s : sortClauses) {
 			if(s.index < 0 || s.index >= selectColumns.size()) {
@@ -468,11 +578,171 @@ public class SqlParser {
 	}
 
 
+	/**
+	 * Write the parsed query, so it can be used without parsing the sql again
+	 */
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, selectColumns.size());
+		for (SelectColumn c : selectColumns) {
+			WritableUtils.writeEnum(out, c.type);
+			WritableUtils.writeString(out, c.constant);
+			writeColumn(out, c.column);
+			WritableUtils.writeString(out, c.function != null ? c.function.name() : null);
+			out.writeDouble(c.percentile);
+		}
+		out.writeBoolean(distinct);
+		WritableUtils.writeString(out, mainTable);
+		WritableUtils.writeVInt(out, joins.size());
+		for (Join join : joins) {
+			WritableUtils.writeString(out, join.table);
+			WritableUtils.writeVInt(out, join.joinClauses.size());
+			for (JoinClause joinClause : join.joinClauses) {
+				WritableUtils.writeVInt(out, joinClause.localColumn);
+				writeColumn(out, joinClause.foreignColumn);
+			}
+		}
+		writeWhereClause(out, whereClause);
+		WritableUtils.writeVInt(out, groupByColumns.size());
+		for (Column column : groupByColumns) {
+			writeColumn(out, column);
+		}
+		WritableUtils.writeVInt(out, havingColumns.size());
+		for (HavingColumn having : havingColumns) {
+			WritableUtils.writeVInt(out, having.index);
+			WritableUtils.writeEnum(out, having.operator);
+			WritableUtils.writeString(out, having.value);
+		}
+		WritableUtils.writeVInt(out, sortClauses.size());
+		for (SortClause sortClause : sortClauses) {
+			WritableUtils.writeVInt(out, sortClause.index);
+			WritableUtils.writeEnum(out, sortClause.order);
+		}
+		out.writeBoolean(requireGrouping);
+		WritableUtils.writeVInt(out, limit);
+	}
+	
+	/**
+	 * Read a query written with write()
+	 */
+	public static SqlParser read(DataInput in) throws IOException {
+		SqlParser sql = new SqlParser();
+		sql.readFields(in);
+		return sql;
+	}
+	
+	private void readFields(DataInput in) throws IOException {
+		selectColumns = new ArrayList<SelectColumn>();
+		int count = WritableUtils.readVInt(in);
+		for (int i = 0; i < count; i++) {
+			SelectColumn c = new SelectColumn();
+			c.type = WritableUtils.readEnum(in, SelectColumnType.class);
+			c.constant = WritableUtils.readString(in);
+			c.column = readColumn(in);
+			String function = WritableUtils.readString(in);
+			c.function = function != null ? AggregateFunction.valueOf(function) : null;
+			c.percentile = in.readDouble();
+			selectColumns.add(c);
+		}
+		distinct = in.readBoolean();
+		mainTable = WritableUtils.readString(in);
+		joins = new ArrayList<Join>();
+		count = WritableUtils.readVInt(in);
+		for (int i = 0; i < count; i++) {
+			Join join = new Join();
+			join.table = WritableUtils.readString(in);
+			join.joinClauses = new ArrayList<JoinClause>();
+			int clauses = WritableUtils.readVInt(in);
+			for (int j = 0; j < clauses; j++) {
+				JoinClause joinClause = new JoinClause();
+				joinClause.localColumn = WritableUtils.readVInt(in);
+				joinClause.foreignColumn = readColumn(in);
+				join.joinClauses.add(joinClause);
+			}
+			joins.add(join);
+		}
+		whereClause = readWhereClause(in);
+		groupByColumns = new ArrayList<Column>();
+		count = WritableUtils.readVInt(in);
+		for (int i = 0; i < count; i++) {
+			groupByColumns.add(readColumn(in));
+		}
+		havingColumns = new ArrayList<HavingColumn>();
+		count = WritableUtils.readVInt(in);
+		for (int i = 0; i < count; i++) {
+			HavingColumn having = new HavingColumn();
+			having.index = WritableUtils.readVInt(in);
+			having.operator = WritableUtils.readEnum(in, Operator.class);
+			having.value = WritableUtils.readString(in);
+			havingColumns.add(having);
+		}
+		sortClauses = new ArrayList<SortClause>();
+		count = WritableUtils.readVInt(in);
+		for (int i = 0; i < count; i++) {
+			SortClause sortClause = new SortClause();
+			sortClause.index = WritableUtils.readVInt(in);
+			sortClause.order = WritableUtils.readEnum(in, SortOrder.class);
+			sortClauses.add(sortClause);
+		}
+		requireGrouping = in.readBoolean();
+		limit = WritableUtils.readVInt(in);
+	}
+	
+	private void writeColumn(DataOutput out, Column column) throws IOException {
+		WritableUtils.writeString(out, column != null ? column.table : null);
+		if(column != null) {
+			WritableUtils.writeVInt(out, column.column);
+		}
+	}
+	
+	private Column readColumn(DataInput in) throws IOException {
+		String table = WritableUtils.readString(in);
+		if(table == null)
+			return null;
+		return new Column(table, WritableUtils.readVInt(in));
+	}
+	
+	private void writeWhereClause(DataOutput out, WhereClause clause) throws IOException {
+		if(clause instanceof WhereSimpleClause) {
+			WhereSimpleClause simpleClause = (WhereSimpleClause)clause;
+			out.writeByte(SIMPLE_CLAUSE);
+			writeColumn(out, simpleClause.column);
+			WritableUtils.writeEnum(out, simpleClause.operator);
+			WritableUtils.writeString(out, simpleClause.value);
+		} else if(clause instanceof WhereCompoundClause) {
+			WhereCompoundClause compClause = (WhereCompoundClause)clause;
+			out.writeByte(COMPOUND_CLAUSE);
+			writeWhereClause(out, compClause.leftClause);
+			WritableUtils.writeEnum(out, compClause.operator);
+			writeWhereClause(out, compClause.rightClause);
+		} else {
+			out.writeByte(NO_CLAUSE);
+		}
+	}
+	
+	private WhereClause readWhereClause(DataInput in) throws IOException {
+		byte tag = in.readByte();
+		if(tag == SIMPLE_CLAUSE) {
+			WhereSimpleClause simpleClause = new WhereSimpleClause();
+			simpleClause.column = readColumn(in);
+			simpleClause.operator = WritableUtils.readEnum(in, Operator.class);
+			simpleClause.value = WritableUtils.readString(in);
+			return simpleClause;
+		} else if(tag == COMPOUND_CLAUSE) {
+			WhereCompoundClause compClause = new WhereCompoundClause();
+			compClause.leftClause = readWhereClause(in);
+			compClause.operator = WritableUtils.readEnum(in, ConditionalOperator.class);
+			compClause.rightClause = readWhereClause(in);
+			return compClause;
+		}
+		return null;
+	}
+	
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		
-		sb.append("SELECT ");
+		sb.append(distinct ? "SELECT DISTINCT " : "SELECT ");
 		for (int i = 0; i < selectColumns.size(); i++) {
 			sb.append(selectColumns.get(i));
 			if(i != selectColumns.size() - 1) {
@@ -510,6 +780,17 @@ public class SqlParser {
 			sb.append("\n");
 		}
 		
+		if(havingColumns.size() > 0) {
+			sb.append("HAVING ");
+			for (int i = 0; i < havingColumns.size(); i++) {
+				sb.append(havingColumns.get(i));
+				if(i != havingColumns.size() - 1) {
+					sb.append(" AND ");
+				}
+			}
+			sb.append("\n");
+		}
+		
 		if(sortClauses.size() > 0) {
 			sb.append("ORDER BY ");
 			for (int i = 0; i < sortClauses.size(); i++) {
@@ -521,9 +802,39 @@ public class SqlParser {
 			sb.append("\n");
 		}
 		
+		if(limit >= 0) {
+			sb.append("LIMIT " + limit);
+			sb.append("\n");
+		}
+		
 		return sb.toString();
 	}
 	
+	/**
+	 * Split by commas that are not inside parenthesis or quotes
+	 */
+	private List<String> splitOutsideParenthesis(String text) {
+		List<String> parts = new ArrayList<String>();
+		int depth = 0;
+		boolean quoted = false;
+		int start = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if(c == '\'') {
+				quoted = !quoted;
+			} else if(!quoted && c == '(') {
+				depth++;
+			} else if(!quoted && c == ')') {
+				depth--;
+			} else if(!quoted && depth == 0 && c == ',') {
+				parts.add(text.substring(start, i));
+				start = i + 1;
+			}
+		}
+		parts.add(text.substring(start));
+		return parts;
+	}
+	
 	private String extractTextWithin(String text, String start, String end) {
 		return text.substring(text.indexOf(start) + start.length(), text.indexOf(end)).trim();
 	}
@@ -536,6 +847,10 @@ public class SqlParser {
 	public class Column {
 		public String table;
 		public int column;
+		public Column(String table, int column) {
+			this.table = table;
+			this.column = column;
+		}
 		public Column(String s) {
 			String[] split = s.split("\\.");
 			if(split.length != 2) {
@@ -561,12 +876,20 @@ public class SqlParser {
 		public String constant;
 		public Column column;
 		public AggregateFunction function;
+		/**
+		 * Percentile of PERCENTILE_APPROX and MEDIAN, between 0 and 1
+		 */
+		public double percentile;
 		@Override
 		public String toString() {
 			switch (type) {
 			case CONSTANT:
 				return "'" + constant + "'";
 			case AGGREGATE:
+				if(function == AggregateFunction.COUNT_DISTINCT)
+					return "COUNT(DISTINCT " + column + ")";
+				if(function == AggregateFunction.PERCENTILE_APPROX)
+					return function + "(" + column + ", " + percentile + ")";
 				return function + "(" + column + ")";
 			case COLUMN:
 				return column.toString();
@@ -581,7 +904,14 @@ public class SqlParser {
 		SUM("sum"),
 		MAX("max"),
 		MIN("min"),
-		AVG("avg");
+		AVG("avg"),
+		/**
+		 * COUNT(DISTINCT col), parsed from COUNT
+		 */
+		COUNT_DISTINCT("count_distinct"),
+		APPROX_COUNT_DISTINCT("approx_count_distinct"),
+		PERCENTILE_APPROX("percentile_approx"),
+		MEDIAN("median");
 		public String name;
 		private AggregateFunction(String name) {
 			this.name = name;
@@ -664,8 +994,20 @@ public class SqlParser {
 	public abstract class WhereClause {
 	}
 	
+	/**
+	 * HAVING term: select column compared with a value
+	 */
 	public class HavingColumn {
-		
+		/**
+		 * Index of the column in the select
+		 */
+		public int index;
+		public Operator operator;
+		public String value;
+		@Override
+		public String toString() {
+			return index + operator.toString() + "'" + value + "'";
+		}
 	}
 	
 	public enum SortOrder {
@@ -0,0 +1,254 @@
+package sqlEngine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Quantile sketch (merging t-digest): values are summarized in centroids with a mean and a weight.
+ * Centroids near the median can hold many values and centroids near the tails only a few,
+ * so extreme percentiles like p99 stay accurate. The number of centroids is bounded by
+ * the compression, whatever the number of values is. Digests of different tasks are merged
+ * by adding their centroids.
+ *
+ * @author Matias Leone
+ */
+public class TDigest implements Writable {
+
+	private final static double COMPRESSION = 100;
+
+	/**
+	 * Values added since the last compress()
+	 */
+	private final static int BUFFER_SIZE = (int)(5 * COMPRESSION);
+
+	private double[] means = new double[16];
+	private double[] weights = new double[16];
+	private int centroidsCount;
+	private double[] spareMeans = new double[16];
+	private double[] spareWeights = new double[16];
+	private double[] bufferMeans = new double[16];
+	private double[] bufferWeights = new double[16];
+	private int bufferCount;
+	private double totalWeight;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public void add(double value) {
+		add(value, 1);
+	}
+
+	/**
+	 * Add the centroids of another digest
+	 */
+	public void merge(TDigest other) {
+		other.compress();
+		for (int i = 0; i < other.centroidsCount; i++) {
+			add(other.means[i], other.weights[i]);
+		}
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Estimated value at the specified quantile, between 0 and 1. NaN if there are no values
+	 */
+	public double quantile(double q) {
+		compress();
+		if(centroidsCount == 0)
+			return Double.NaN;
+		if(centroidsCount == 1)
+			return means[0];
+
+		//Each centroid is at the middle of its weight, values are interpolated between centroids
+		double target = q * totalWeight;
+		if(target < weights[0] / 2)
+			return min + (means[0] - min) * target / (weights[0] / 2);
+		double cumulative = weights[0] / 2;
+		for (int i = 0; i < centroidsCount - 1; i++) {
+			double distance = (weights[i] + weights[i + 1]) / 2;
+			if(cumulative + distance >= target)
+				return means[i] + (means[i + 1] - means[i]) * (target - cumulative) / distance;
+			cumulative += distance;
+		}
+		int last = centroidsCount - 1;
+		return means[last] + (max - means[last]) * Math.min(1, (target - cumulative) / (weights[last] / 2));
+	}
+
+	public void clear() {
+		centroidsCount = 0;
+		bufferCount = 0;
+		totalWeight = 0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Approximate bytes used in memory
+	 */
+	public int getMemorySize() {
+		return 64 + (means.length + spareMeans.length + bufferMeans.length) * 16;
+	}
+
+	private void add(double mean, double weight) {
+		if(bufferCount == BUFFER_SIZE) {
+			compress();
+		}
+		if(bufferCount == bufferMeans.length) {
+			bufferMeans = Arrays.copyOf(bufferMeans, Math.min(bufferCount * 2, BUFFER_SIZE));
+			bufferWeights = Arrays.copyOf(bufferWeights, bufferMeans.length);
+		}
+		bufferMeans[bufferCount] = mean;
+		bufferWeights[bufferCount] = weight;
+		bufferCount++;
+		totalWeight += weight;
+		min = Math.min(min, mean);
+		max = Math.max(max, mean);
+	}
+
+	/**
+	 * Merge the buffer with the centroids. Sorted neighbours are merged while the centroid
+	 * stays under the weight allowed at its quantile: 4 * totalWeight * q * (1 - q) / COMPRESSION
+	 */
+	private void compress() {
+		if(bufferCount == 0)
+			return;
+		sort(bufferMeans, bufferWeights, 0, bufferCount - 1);
+
+		//Centroids and buffer are both sorted, they are merged in order into the spare arrays
+		int count = centroidsCount + bufferCount;
+		if(spareMeans.length < count) {
+			spareMeans = new double[count];
+			spareWeights = new double[count];
+		}
+		int newCount = 0;
+		double weightSoFar = 0;
+		double mean = 0;
+		double weight = 0;
+		int c = 0;
+		int b = 0;
+		while(c < centroidsCount || b < bufferCount) {
+			double nextMean;
+			double nextWeight;
+			if(b == bufferCount || (c < centroidsCount && means[c] <= bufferMeans[b])) {
+				nextMean = means[c];
+				nextWeight = weights[c];
+				c++;
+			} else {
+				nextMean = bufferMeans[b];
+				nextWeight = bufferWeights[b];
+				b++;
+			}
+			if(weight == 0) {
+				mean = nextMean;
+				weight = nextWeight;
+				continue;
+			}
+			double q0 = weightSoFar / totalWeight;
+			double q2 = (weightSoFar + weight + nextWeight) / totalWeight;
+			double limit = 4 * totalWeight * Math.min(q0 * (1 - q0), q2 * (1 - q2)) / COMPRESSION;
+			if(weight + nextWeight <= limit) {
+				mean += (nextMean - mean) * nextWeight / (weight + nextWeight);
+				weight += nextWeight;
+			} else {
+				spareMeans[newCount] = mean;
+				spareWeights[newCount] = weight;
+				newCount++;
+				weightSoFar += weight;
+				mean = nextMean;
+				weight = nextWeight;
+			}
+		}
+		spareMeans[newCount] = mean;
+		spareWeights[newCount] = weight;
+		newCount++;
+
+		//Swap centroids and spare arrays
+		double[] tmp = means;
+		means = spareMeans;
+		spareMeans = tmp;
+		tmp = weights;
+		weights = spareWeights;
+		spareWeights = tmp;
+		centroidsCount = newCount;
+		bufferCount = 0;
+	}
+
+	/**
+	 * Quicksort of the buffer by mean, moving the weights with their means
+	 */
+	private static void sort(double[] keys, double[] values, int from, int to) {
+		while(to - from > 16) {
+			double pivot = keys[(from + to) >>> 1];
+			int i = from;
+			int j = to;
+			while(i <= j) {
+				while(keys[i] < pivot) i++;
+				while(keys[j] > pivot) j--;
+				if(i <= j) {
+					swap(keys, values, i++, j--);
+				}
+			}
+			//Recurse on the smaller side
+			if(j - from < to - i) {
+				sort(keys, values, from, j);
+				from = i;
+			} else {
+				sort(keys, values, i, to);
+				to = j;
+			}
+		}
+		for (int i = from + 1; i <= to; i++) {
+			for (int j = i; j > from && keys[j - 1] > keys[j]; j--) {
+				swap(keys, values, j - 1, j);
+			}
+		}
+	}
+
+	private static void swap(double[] keys, double[] values, int i, int j) {
+		double key = keys[i];
+		keys[i] = keys[j];
+		keys[j] = key;
+		double value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		compress();
+		WritableUtils.writeVInt(out, centroidsCount);
+		if(centroidsCount == 0)
+			return;
+		out.writeDouble(min);
+		out.writeDouble(max);
+		for (int i = 0; i < centroidsCount; i++) {
+			out.writeDouble(means[i]);
+			WritableUtils.writeVLong(out, (long)weights[i]);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		clear();
+		int count = WritableUtils.readVInt(in);
+		if(count == 0)
+			return;
+		min = in.readDouble();
+		max = in.readDouble();
+		if(means.length < count) {
+			means = new double[count];
+			weights = new double[count];
+		}
+		for (int i = 0; i < count; i++) {
+			means[i] = in.readDouble();
+			weights[i] = WritableUtils.readVLong(in);
+			totalWeight += weights[i];
+		}
+		centroidsCount = count;
+	}
+}
@@ -120,6 +120,7 @@ public class TestDataGenerator {
 		Path dir = new Path(inputDirPath.toString() + "/user");
 		hdfs.mkdirs(dir);
 		
+		writeSchema(hdfs, dir, "int,string,string");
 		Path file = new Path(dir.toString() + "/user.csv");
 		BufferedWriter w = new BufferedWriter(new OutputStreamWriter(hdfs.create(file)));
 		for (int i = 0; i < USERS.length; i++) {
@@ -134,6 +135,7 @@ public class TestDataGenerator {
 		Path dir = new Path(inputDirPath.toString() + "/product");
 		hdfs.mkdirs(dir);
 		
+		writeSchema(hdfs, dir, "int,string,decimal");
 		Path file = new Path(dir.toString() + "/product.csv");
 		BufferedWriter w = new BufferedWriter(new OutputStreamWriter(hdfs.create(file)));
 		for (int i = 0; i < PRODUCTS.length; i++) {
@@ -148,6 +150,7 @@ public class TestDataGenerator {
 		Path dir = new Path(inputDirPath.toString() + "/store");
 		hdfs.mkdirs(dir);
 		
+		writeSchema(hdfs, dir, "int,string");
 		Path file = new Path(dir.toString() + "/store.csv");
 		BufferedWriter w = new BufferedWriter(new OutputStreamWriter(hdfs.create(file)));
 		for (int i = 0; i < STORES.length; i++) {
@@ -162,6 +165,7 @@ public class TestDataGenerator {
 		Path dir = new Path(inputDirPath.toString() + "/sale");
 		hdfs.mkdirs(dir);
 		
+		writeSchema(hdfs, dir, "int,int,int,int,int,int");
 		Path file = new Path(dir.toString() + "/sale.csv");
 		BufferedWriter w = new BufferedWriter(new OutputStreamWriter(hdfs.create(file)));
 		Random r = new Random();
@@ -184,6 +188,15 @@ public class TestDataGenerator {
 	}
 	
 	
+	/**
+	 * Column types of the table, read by SchemaCatalog
+	 */
+	private void writeSchema(FileSystem hdfs, Path dir, String types) throws Exception {
+		BufferedWriter w = new BufferedWriter(new OutputStreamWriter(hdfs.create(new Path(dir, SchemaCatalog.SCHEMA_FILE))));
+		w.write(types);
+		w.close();
+	}
+	
 	private static class Row {
 		private String[] values;
 		public Row(String...values) {
@@ -0,0 +1,97 @@
+package sqlEngine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * The first N rows by SortKey, used by ORDER BY ... LIMIT N.
+ * Rows are kept in a heap with the greatest kept row on top, so each new row is compared with it
+ * and only copied if it goes before it. Memory is proportional to N, not to the number of rows.
+ * Callers check getMemorySize() against their budget and let the shuffle sort the rows when N is too big.
+ *
+ * @author Matias Leone
+ */
+public class TopRows {
+
+	/**
+	 * Approximate bytes used by an entry of the heap, besides the key and row bytes
+	 */
+	private final static int ENTRY_OVERHEAD = 128;
+	
+	/**
+	 * Order of the rows by key
+	 */
+	public final static Comparator<Entry> KEY_ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			return a.key.compareTo(b.key);
+		}
+	};
+
+	private final int limit;
+	private final PriorityQueue<Entry> heap;
+	private long memorySize;
+
+	public TopRows(int limit) {
+		this.limit = limit;
+		this.heap = new PriorityQueue<Entry>(Math.max(1, Math.min(limit, 1024)), Collections.reverseOrder(KEY_ORDER));
+	}
+
+	/**
+	 * Check if a row with the key would be kept by add(), so callers can skip building rows that are not
+	 */
+	public boolean accepts(SortKey key) {
+		return heap.size() < limit || (limit > 0 && key.compareTo(heap.peek().key) < 0);
+	}
+	
+	/**
+	 * Add a row if it is one of the first N rows seen so far. Key and row are copied
+	 */
+	public void add(SortKey key, Text row) {
+		if(heap.size() < limit) {
+			heap.add(new Entry(key, row));
+			memorySize += ENTRY_OVERHEAD + key.getLength() + row.getLength();
+		} else if(limit > 0 && key.compareTo(heap.peek().key) < 0) {
+			//Reuse the entry of the row that leaves the heap
+			Entry entry = heap.poll();
+			memorySize += key.getLength() + row.getLength() - entry.key.getLength() - entry.row.getLength();
+			entry.key.set(key);
+			entry.row.set(row);
+			heap.add(entry);
+		}
+	}
+	
+	/**
+	 * Approximate bytes used by the kept rows
+	 */
+	public long getMemorySize() {
+		return memorySize;
+	}
+
+	/**
+	 * Kept rows in order
+	 */
+	public List<Entry> getSorted() {
+		List<Entry> rows = new ArrayList<Entry>(heap);
+		Collections.sort(rows, KEY_ORDER);
+		return rows;
+	}
+
+
+	/**
+	 * Kept row with its key
+	 */
+	public static class Entry {
+		public final SortKey key = new SortKey();
+		public final Text row = new Text();
+		public Entry(SortKey key, Text row) {
+			this.key.set(key);
+			this.row.set(row);
+		}
+	}
+}
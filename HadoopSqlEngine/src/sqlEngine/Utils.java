@@ -6,11 +6,14 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
 
 /**
  * Misc utilities
@@ -21,6 +24,28 @@ import org.apache.hadoop.fs.Path;
 public class Utils {
 
 	private final static DecimalFormat DECIMAL_FORMAT = new DecimalFormat("#0.00");
+	private final static char JOIN_KEY_SEPARATOR = '\u0000';
+	
+	/**
+	 * Skip hidden files, like FileInputFormat does
+	 */
+	public final static PathFilter VISIBLE_FILES = new PathFilter() {
+		@Override
+		public boolean accept(Path path) {
+			String name = path.getName();
+			return !name.startsWith("_") && !name.startsWith(".");
+		}
+	};
+	
+	/**
+	 * Order of files by name
+	 */
+	private final static Comparator<Path> FILE_NAME_ORDER = new Comparator<Path>() {
+		@Override
+		public int compare(Path a, Path b) {
+			return a.getName().compareTo(b.getName());
+		}
+	};
 	
 	private Utils() {
 	}
@@ -36,6 +61,63 @@ public class Utils {
     	return sb.toString();
     }
 	
+	/**
+	 * Build the key used to match rows in a join. Joins with many clauses use a composite key
+	 */
+	public static String getJoinKey(String[] values) {
+		if(values.length == 1)
+			return values[0];
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			sb.append(values[i]);
+			if(i != values.length - 1) {
+				sb.append(JOIN_KEY_SEPARATOR);
+			}
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * MurmurHash3 32 bits over a range of bytes
+	 */
+	@SuppressWarnings("fallthrough")
+	public static int hashBytes(byte[] bytes, int offset, int length, int seed) {
+		int h = seed;
+		int end = offset + (length & ~3);
+		for (int i = offset; i < end; i += 4) {
+			int k = (bytes[i] & 0xff) | ((bytes[i + 1] & 0xff) << 8) | ((bytes[i + 2] & 0xff) << 16) | (bytes[i + 3] << 24);
+			h ^= mixKey(k);
+			h = Integer.rotateLeft(h, 13);
+			h = h * 5 + 0xe6546b64;
+		}
+		int k = 0;
+		//Tail bytes: each case falls through to add the lower bytes
+		switch (length & 3) {
+		case 3:
+			k ^= (bytes[end + 2] & 0xff) << 16;
+			//Fall through
+		case 2:
+			k ^= (bytes[end + 1] & 0xff) << 8;
+			//Fall through
+		case 1:
+			k ^= (bytes[end] & 0xff);
+			h ^= mixKey(k);
+		}
+		h ^= length;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+	
+	private static int mixKey(int k) {
+		k *= 0xcc9e2d51;
+		k = Integer.rotateLeft(k, 15);
+		return k * 0x1b873593;
+	}
+
 	public static void createNewDir(FileSystem hdfs, Path path) {
 		try {
 			deleteDirRecursive(hdfs, path);
@@ -147,6 +229,8 @@ public class Utils {
 					list.add(fileStatus.getPath());
 				}
 			}
+			//In name order, so the ranges written by sorting reducers are read in order
+			Collections.sort(list, FILE_NAME_ORDER);
 			return list;
 		} catch (Exception e) {
 			throw new RuntimeException("Error checking reducer output files inside: " + reduceDir + " with pattern: " + filePattern, e);
@@ -161,7 +245,7 @@ public class Utils {
 			}
 			BufferedWriter w = new BufferedWriter(new OutputStreamWriter(hdfs.create(outputPath)));
 			
-			FileStatus[] outputFiles = hdfs.listStatus(srcDir);
+			FileStatus[] outputFiles = hdfs.listStatus(srcDir, VISIBLE_FILES);
 			for (FileStatus fileStatus : outputFiles) {
 				BufferedReader reader = new BufferedReader(new InputStreamReader(hdfs.open(fileStatus.getPath())));
 	    		String line;
@@ -0,0 +1,368 @@
+package sqlEngine;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import sqlEngine.SqlParser.ConditionalOperator;
+import sqlEngine.SqlParser.Operator;
+import sqlEngine.SqlParser.WhereClause;
+import sqlEngine.SqlParser.WhereCompoundClause;
+import sqlEngine.SqlParser.WhereSimpleClause;
+
+/**
+ * WHERE filter compiled once per task.
+ * Tables are resolved to slots of the rows array and constants are prepared in advance,
+ * so each row only runs the comparison of each operator.
+ * Columns with a type in the schema catalog are compared as numbers, the rest as text.
+ *
+ * @author Matias Leone
+ */
+public abstract class WherePredicate {
+
+	/**
+	 * Predicate without filters
+	 */
+	public final static WherePredicate TRUE = new WherePredicate() {
+		@Override
+		public boolean evaluate(Row[] rows) {
+			return true;
+		}
+	};
+
+	/**
+	 * Check if the joined rows satisfy the filter
+	 * @param rows one row for each table, in the order used to compile the predicate
+	 */
+	public abstract boolean evaluate(Row[] rows);
+
+
+	/**
+	 * Compile a list of WHERE terms that must be all satisfied
+	 * @param tables tables of the query, the position of each table is its slot in the rows array
+	 * @param catalog column types, typed columns are compared as numbers
+	 */
+	public static WherePredicate compile(List<WhereClause> clauses, List<String> tables, SchemaCatalog catalog) {
+		if(clauses.isEmpty())
+			return TRUE;
+		if(clauses.size() == 1)
+			return compile(clauses.get(0), tables, catalog);
+		WherePredicate[] terms = new WherePredicate[clauses.size()];
+		for (int i = 0; i < terms.length; i++) {
+			terms[i] = compile(clauses.get(i), tables, catalog);
+		}
+		return new And(terms);
+	}
+
+	/**
+	 * Compile one WHERE clause
+	 * @param tables tables of the query, the position of each table is its slot in the rows array
+	 * @param catalog column types, typed columns are compared as numbers
+	 */
+	public static WherePredicate compile(WhereClause clause, List<String> tables, SchemaCatalog catalog) {
+		//Compound expression: nested clauses with the same operator are evaluated in one loop
+		if(clause instanceof WhereCompoundClause) {
+			ConditionalOperator operator = ((WhereCompoundClause)clause).operator;
+			List<WhereClause> operands = new ArrayList<WhereClause>();
+			flatten(clause, operator, operands);
+			WherePredicate[] terms = new WherePredicate[operands.size()];
+			for (int i = 0; i < terms.length; i++) {
+				terms[i] = compile(operands.get(i), tables, catalog);
+			}
+			return operator == ConditionalOperator.AND ? new And(terms) : new Or(terms);
+		}
+
+		//Final expression
+		WhereSimpleClause simpleClause = (WhereSimpleClause)clause;
+		int slot = tables.indexOf(simpleClause.column.table);
+		if(slot < 0) {
+			throw new RuntimeException("Invalid table name: " + simpleClause.column.table);
+		}
+		int colIndex = simpleClause.column.column;
+		String value = simpleClause.value;
+		Operator operator = simpleClause.operator;
+		
+		//Typed columns: the constant is parsed once and compared with the parsed value of each row
+		DataType type = catalog.getType(simpleClause.column.table, colIndex);
+		if(type != DataType.STRING && operator != Operator.LIKE) {
+			try {
+				if(type.isIntegral())
+					return new LongCompare(slot, colIndex, operator, type, type.parseLong(value));
+				if(type == DataType.DOUBLE)
+					return new DoubleCompare(slot, colIndex, operator, Double.parseDouble(value));
+				return new DecimalCompare(slot, colIndex, operator, new BigDecimal(value));
+			} catch (NumberFormatException e) {
+				throw new RuntimeException("Invalid " + type + " value for " + simpleClause.column + ": " + value);
+			}
+		}
+		
+		switch (operator) {
+		case EQUALS:
+			return new Equals(slot, colIndex, value);
+		case NOT_EQUALS:
+			return new NotEquals(slot, colIndex, value);
+		case LIKE:
+			return new Like(slot, colIndex, value);
+		default:
+			return new Compare(slot, colIndex, value, operator);
+		}
+	}
+
+	private static void flatten(WhereClause clause, ConditionalOperator operator, List<WhereClause> operands) {
+		if(clause instanceof WhereCompoundClause && ((WhereCompoundClause)clause).operator == operator) {
+			WhereCompoundClause compClause = (WhereCompoundClause)clause;
+			flatten(compClause.leftClause, operator, operands);
+			flatten(compClause.rightClause, operator, operands);
+		} else {
+			operands.add(clause);
+		}
+	}
+
+
+	/**
+	 * All terms must be satisfied, stops at the first one that is not
+	 */
+	private static class And extends WherePredicate {
+		private final WherePredicate[] terms;
+		public And(WherePredicate[] terms) {
+			this.terms = terms;
+		}
+		@Override
+		public boolean evaluate(Row[] rows) {
+			for (WherePredicate term : terms) {
+				if(!term.evaluate(rows))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * At least one term must be satisfied, stops at the first one that is
+	 */
+	private static class Or extends WherePredicate {
+		private final WherePredicate[] terms;
+		public Or(WherePredicate[] terms) {
+			this.terms = terms;
+		}
+		@Override
+		public boolean evaluate(Row[] rows) {
+			for (WherePredicate term : terms) {
+				if(term.evaluate(rows))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Comparison of one column with a constant.
+	 * Rows read from bytes are compared without creating Strings when both values are ASCII,
+	 * where bytes and Strings give the same result.
+	 */
+	private abstract static class ColumnPredicate extends WherePredicate {
+		protected final int slot;
+		protected final int colIndex;
+		protected final String value;
+		protected final byte[] asciiValue;
+
+		public ColumnPredicate(int slot, int colIndex, String value) {
+			this.slot = slot;
+			this.colIndex = colIndex;
+			this.value = value;
+			this.asciiValue = toAscii(value);
+		}
+
+		@Override
+		public final boolean evaluate(Row[] rows) {
+			Row row = rows[slot];
+			if(asciiValue != null && row instanceof RowView) {
+				RowView view = (RowView)row;
+				if(view.isAscii(colIndex))
+					return evaluate(view);
+			}
+			return evaluate(row.getValue(colIndex));
+		}
+
+		protected abstract boolean evaluate(RowView view);
+
+		protected abstract boolean evaluate(String colValue);
+
+		/**
+		 * Bytes of the value, or null if it has characters that are not ASCII
+		 */
+		private static byte[] toAscii(String value) {
+			byte[] bytes = new byte[value.length()];
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if(c > 127)
+					return null;
+				bytes[i] = (byte)c;
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * Column in lower case equal to the value
+	 */
+	private static class Equals extends ColumnPredicate {
+		public Equals(int slot, int colIndex, String value) {
+			super(slot, colIndex, value);
+		}
+		@Override
+		protected boolean evaluate(RowView view) {
+			return view.equalsLowerCase(colIndex, asciiValue);
+		}
+		@Override
+		protected boolean evaluate(String colValue) {
+			return colValue.toLowerCase().equals(value);
+		}
+	}
+
+	/**
+	 * Column different from the value
+	 */
+	private static class NotEquals extends ColumnPredicate {
+		public NotEquals(int slot, int colIndex, String value) {
+			super(slot, colIndex, value);
+		}
+		@Override
+		protected boolean evaluate(RowView view) {
+			return view.compareTo(colIndex, asciiValue, 0, asciiValue.length) != 0;
+		}
+		@Override
+		protected boolean evaluate(String colValue) {
+			return !colValue.equals(value);
+		}
+	}
+
+	/**
+	 * Column in lower case that contains the value
+	 */
+	private static class Like extends ColumnPredicate {
+		public Like(int slot, int colIndex, String value) {
+			super(slot, colIndex, value);
+		}
+		@Override
+		protected boolean evaluate(RowView view) {
+			return view.containsLowerCase(colIndex, asciiValue);
+		}
+		@Override
+		protected boolean evaluate(String colValue) {
+			return colValue.toLowerCase().contains(value);
+		}
+	}
+
+	/**
+	 * Column greater or lower than the value
+	 */
+	private static class Compare extends ColumnPredicate {
+		private final Comparison comparison;
+		public Compare(int slot, int colIndex, String value, Operator operator) {
+			super(slot, colIndex, value);
+			this.comparison = new Comparison(operator);
+		}
+		@Override
+		protected boolean evaluate(RowView view) {
+			return comparison.accept(view.compareTo(colIndex, asciiValue, 0, asciiValue.length));
+		}
+		@Override
+		protected boolean evaluate(String colValue) {
+			return comparison.accept(colValue.compareTo(value));
+		}
+	}
+
+	/**
+	 * Results of a comparison accepted by an operator
+	 */
+	private static class Comparison {
+		private final boolean lower;
+		private final boolean equal;
+		private final boolean greater;
+		public Comparison(Operator operator) {
+			lower = operator == Operator.LOWER || operator == Operator.LOWER_EQ || operator == Operator.NOT_EQUALS;
+			equal = operator == Operator.EQUALS || operator == Operator.LOWER_EQ || operator == Operator.GREATER_EQ;
+			greater = operator == Operator.GREATER || operator == Operator.GREATER_EQ || operator == Operator.NOT_EQUALS;
+		}
+		public boolean accept(int result) {
+			return result < 0 ? lower : (result == 0 ? equal : greater);
+		}
+	}
+
+	/**
+	 * Comparison of a typed column with a parsed constant. Values that do not have the type of the column
+	 * do not satisfy any operator
+	 */
+	private abstract static class TypedCompare extends WherePredicate {
+		protected final int slot;
+		protected final int colIndex;
+		private final Comparison comparison;
+		public TypedCompare(int slot, int colIndex, Operator operator) {
+			this.slot = slot;
+			this.colIndex = colIndex;
+			this.comparison = new Comparison(operator);
+		}
+		@Override
+		public final boolean evaluate(Row[] rows) {
+			try {
+				return comparison.accept(compare(rows[slot]));
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		/**
+		 * Compare the column of the row with the constant
+		 */
+		protected abstract int compare(Row row);
+	}
+
+	/**
+	 * INT, LONG and DATE columns
+	 */
+	private static class LongCompare extends TypedCompare {
+		private final DataType type;
+		private final long value;
+		public LongCompare(int slot, int colIndex, Operator operator, DataType type, long value) {
+			super(slot, colIndex, operator);
+			this.type = type;
+			this.value = value;
+		}
+		@Override
+		protected int compare(Row row) {
+			long colValue = type.parseLong(row, colIndex);
+			return colValue < value ? -1 : (colValue == value ? 0 : 1);
+		}
+	}
+
+	/**
+	 * DOUBLE columns
+	 */
+	private static class DoubleCompare extends TypedCompare {
+		private final double value;
+		public DoubleCompare(int slot, int colIndex, Operator operator, double value) {
+			super(slot, colIndex, operator);
+			this.value = value;
+		}
+		@Override
+		protected int compare(Row row) {
+			return Double.compare(DataType.DOUBLE.parseDouble(row, colIndex), value);
+		}
+	}
+
+	/**
+	 * DECIMAL columns, compared exactly
+	 */
+	private static class DecimalCompare extends TypedCompare {
+		private final BigDecimal value;
+		public DecimalCompare(int slot, int colIndex, Operator operator, BigDecimal value) {
+			super(slot, colIndex, operator);
+			this.value = value;
+		}
+		@Override
+		protected int compare(Row row) {
+			return new BigDecimal(row.getValue(colIndex)).compareTo(value);
+		}
+	}
+
+}